@@ -4,9 +4,6 @@ import java.util.*;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import io.atlassian.fugue.Pair;
 import uk.ac.bris.cs.scotlandyard.model.*;
@@ -16,48 +13,150 @@ import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
 
 public class Filipek implements Ai {
 
+	// Part of the time budget kept back, so the move is handed in before the game times out (Used in: pickMove())
+	private static final double SAFETY_FRACTION = 0.1;
+	private static final long MIN_SAFETY_MILLIS = 200;
+
+	// Thrown (without a stack trace) to abandon a search iteration once the deadline has passed
+	private static final RuntimeException SEARCH_TIMEOUT = new RuntimeException("Search deadline passed", null, false, false) {};
+
+	// Memory for the transposition table, in megabytes (can be set with -Dfilipek.ttMegabytes=...)
+	private static final int TT_MEGABYTES = Integer.getInteger("filipek.ttMegabytes", 64);
+	// Detective stations (with their tickets) whose distances are kept, each takes a byte per station (Used in: pickMove())
+	private static final int DISTANCE_CACHE_ENTRIES = 4096;
+	// Distance scored for a detective who can't reach Mr. X, further than any reachable one (Used in: minimaxScore())
+	// Only a finished game scores Integer.MIN_VALUE or MAX_VALUE, which ends the iterative deepening
+	private static final int UNREACHABLE_DISTANCE = 2 * TicketDistances.HORIZON;
+
+	// System.nanoTime() by which the current search has to stop (Used in: minimax())
+	private long deadline;
+	// Results of the positions searched so far, kept between the moves of a game (Used in: minimax())
+	private TranspositionTable table;
+	// Distances of the detectives to Mr. X with the tickets they have left, for the current game (Used in: detectiveDistances())
+	private TicketDistances distances;
+
 	@Nonnull @Override
 	public String name() { return "Filipek"; }
 
-	@Nonnull @Override
-	public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
-		// No. of turns to look ahead (turn = Mr. X move + all detective moves)
-		final int TURNS = 1;
+	@Override
+	public void onStart() {
+		// Positions of an earlier game may have been on another map
+		if (table != null) table.clear();
+		distances = null;
+	}
 
-		Board.GameState gameState = createGameState(board);
+	@Override
+	public void onTerminate() {
+		// Frees the table's memory
+		table = null;
+		distances = null;
+	}
 
-		ImmutableSet<Move> moves = gameState.getAvailableMoves();
+	@Nonnull @Override
+	public Move pickMove(@Nonnull Board board, Pair<Long, TimeUnit> timeoutPair) {
+		// The search has to finish before the game's timeout, minus a safety margin for handing the move in
+		long budget = timeoutPair.right().toNanos(timeoutPair.left());
+		long margin = Math.max((long) (budget * SAFETY_FRACTION), TimeUnit.MILLISECONDS.toNanos(MIN_SAFETY_MILLIS));
+		deadline = System.nanoTime() + Math.max(budget - margin, 0);
+
+		// The table is only allocated once a move is actually asked for, and then kept for the rest of the game
+		if (table == null) table = new TranspositionTable(TT_MEGABYTES * (1L << 20));
+		table.newSearch();
+		if (distances == null) distances = new TicketDistances(board.getSetup(), DISTANCE_CACHE_ENTRIES);
+
+		// NOTE: Works on Mr. X's turn ONLY (his location is taken from his available moves)
+		// The whole search plays its moves on this one state, making and unmaking them
+		SearchState gameState = SearchState.of(board);
+		// One buffer for the moves of the whole search, each level of the tree adds its moves to the end
+		MoveList moveList = new MoveList();
+
+		// If not even the first iteration finishes in time, play the first move
+		gameState.generateMoves(moveList);
+		long bestMove = moveList.get(0);
+		moveList.clear();
+
+		// Iterative deepening: search one ply (a Mr. X move or a detectives' round) deeper each time, until the
+		// deadline or the end of the game. Each iteration searches the best move of the previous one first,
+		// and only the move of a completed iteration is played (an abandoned one leaves the state half made)
+		int maxPlies = 2 * (board.getSetup().moves.size() - board.getMrXTravelLog().size());
+		for (int plies = 1; plies <= maxPlies; plies++) {
+			MoveScore result;
+			try {
+				result = minimax(gameState, moveList, plies, Integer.MIN_VALUE, Integer.MAX_VALUE, true, bestMove);
+			} catch (RuntimeException e) {
+				if (e != SEARCH_TIMEOUT) throw e;
+				break;
+			}
+			bestMove = result.move;
+			// A forced win or loss doesn't change by looking further
+			if (result.score == Integer.MAX_VALUE || result.score == Integer.MIN_VALUE) break;
+		}
 
-		// call minimax to get the best move
-		return minimax(gameState, TURNS * 2, Integer.MIN_VALUE, Integer.MAX_VALUE ,true).move;
+		// the search works on encoded moves so only the chosen one is decoded
+		return MoveCodec.decode(bestMove);
 	}
 
 	// Note: MaxPlayer = Mr. X, alpha, beta are the best scores either side can achieve
-	public MoveScore minimax(Board.GameState gameState, int depth, int alpha, int beta, boolean isMaxPlayer) {
+	// firstMove is searched first if it is one of Mr. X's moves here (the previous iteration's best move), or NONE
+	// The game state is left as it was found, every move made is unmade again (unless the deadline passes)
+	// Results are stored in the transposition table by the position's canonical key, so positions reached again
+	// (by another order of moves, or with the detectives swapped around) aren't searched again
+	public MoveScore minimax(SearchState gameState, MoveList moveList, int depth, int alpha, int beta, boolean isMaxPlayer, long firstMove) {
+		if (System.nanoTime() > deadline) throw SEARCH_TIMEOUT;
+
 		// First, check for a winner
 		if (!gameState.getWinner().isEmpty()) {
 			// only score is returned, because at this point, we are looking only at the board evaluation, moves are considered on higher levels of the tree
-			return (gameState.getWinner().equals(ImmutableSet.of(MrX.MRX))) ? new MoveScore(null, Integer.MAX_VALUE) : new MoveScore(null, Integer.MIN_VALUE);
+			return (gameState.getWinner().equals(ImmutableSet.of(MrX.MRX))) ? new MoveScore(MoveCodec.NONE, Integer.MAX_VALUE) : new MoveScore(MoveCodec.NONE, Integer.MIN_VALUE);
 		}
-		// If depth = 0, statically evaluate the board, there is no move to play at this point, we just want to score the position of mrX
-		if (depth == 0) return new MoveScore(null, minimaxScore(gameState));
 
-		// If we don't yet have a winner, we can assume getAvailableMoves() is NOT empty
-		ImmutableSet<Move> moves = gameState.getAvailableMoves();
-
-		// if detectives are about to play, so depth is odd, we create compound moves for them to simulate as if they were just one player
-		if (depth % 2 == 1) {
-			moves = generateDetectiveMoves(gameState, moves);
+		// Look the position up: a result of a search at least as deep can be used straight away (except at the root,
+		// where the move itself is needed), and otherwise its best move is searched first
+		long key = gameState.canonicalKey();
+		long entry = table.probe(key);
+		if (entry != TranspositionTable.MISS && TranspositionTable.depth(entry) >= depth && gameState.depth() > 0) {
+			int score = TranspositionTable.score(entry);
+			int bound = TranspositionTable.bound(entry);
+			if (bound == TranspositionTable.EXACT
+					|| (bound == TranspositionTable.LOWER && score >= beta)
+					|| (bound == TranspositionTable.UPPER && score <= alpha))
+				return new MoveScore(MoveCodec.NONE, score);
 		}
+		if (firstMove == MoveCodec.NONE && entry != TranspositionTable.MISS) firstMove = table.probeMove(key);
 
-		// initialise best move to the first one
-		Move bestMove = moves.asList().get(0);
+		// If depth = 0, statically evaluate the board, there is no move to play at this point, we just want to score the position of mrX
+		if (depth == 0) {
+			int score = minimaxScore(gameState);
+			table.store(key, 0, TranspositionTable.EXACT, score, MoveCodec.NONE);
+			return new MoveScore(MoveCodec.NONE, score);
+		}
+		int originalAlpha = alpha, originalBeta = beta;
 
 		// If evaluating Mr. X's moves:
 		if (isMaxPlayer) {
+			// If we don't yet have a winner, we can assume there are moves, which go at the end of the move list
+			// (from 'start' to 'end', the levels below add theirs after 'end' and remove them again)
+			int start = moveList.size();
+			gameState.generateMoves(moveList);
+			int end = moveList.size();
+
+			// Search the given move first, it's the most likely to be the best and so gives the most cut-offs
+			for (int i = start; i < end; i++) {
+				if (moveList.get(i) == firstMove) {
+					moveList.set(i, moveList.get(start));
+					moveList.set(start, firstMove);
+					break;
+				}
+			}
+
+			// initialise best move to the first one
+			long bestMove = moveList.get(start);
 			int maxEval = Integer.MIN_VALUE;
-			for (Move move : moves) {
-				int eval = minimax(gameState.advance(move), depth - 1, alpha, beta, false).score;
+			for (int i = start; i < end; i++) {
+				long move = moveList.get(i);
+				gameState.make(move);
+				int eval = minimax(gameState, moveList, depth - 1, alpha, beta, false, MoveCodec.NONE).score;
+				gameState.unmake();
 				if (eval > maxEval) {
 					maxEval = eval;
 					bestMove = move;
@@ -66,38 +165,54 @@ public class Filipek implements Ai {
 				if (beta <= alpha) break;
 			}
 
+			moveList.truncate(start);
+			table.store(key, depth, bound(maxEval, originalAlpha, beta), maxEval, bestMove);
 			return new MoveScore(bestMove, maxEval);
 		}
 		// Else, if evaluating the detective's moves:
 		else {
-			// TODO CRASHES FROM TIME TO TIME
+			// detectives play as one player: each of their rounds (every detective's move, in order) is
+			// generated by the model only when it's needed, and a round that catches Mr. X stops there
+			// (rounds that only swap which detective ends up where are the same to Mr. X, so only one is searched)
+			DetectiveRounds rounds = gameState.detectiveRounds(null, Integer.MAX_VALUE, true);
+
 			int minEval = Integer.MAX_VALUE;
-			for (Move move : moves) {
-				int eval = minimax(((DetectiveMoves)move).advance(gameState), depth - 1, alpha, beta, true).score;
+			while (rounds.hasNext()) {
+				long[] round = rounds.next();
+				gameState.makeRound(round);
+				int eval = minimax(gameState, moveList, depth - 1, alpha, beta, true, MoveCodec.NONE).score;
+				gameState.unmakeRound(round);
 				if (eval < minEval) {
 					minEval = eval;
-					bestMove = move;
 				}
-				System.out.println(minEval);
 				beta = Math.min(beta, eval);
 				if (beta <= alpha) break;
 			}
 
-			return new MoveScore(bestMove, minEval);
+			// the round is never played, only Mr. X's moves are returned from the top of the tree
+			table.store(key, depth, bound(minEval, alpha, originalBeta), minEval, MoveCodec.NONE);
+			return new MoveScore(MoveCodec.NONE, minEval);
 		}
 	}
 
-	// class to score the move used in minimax, thus we get both score and the move
+	// The bound type of a score searched with the window (alpha, beta) (Used in: minimax())
+	private static int bound(int score, int alpha, int beta) {
+		if (score <= alpha) return TranspositionTable.UPPER;
+		if (score >= beta) return TranspositionTable.LOWER;
+		return TranspositionTable.EXACT;
+	}
+
+	// class to score the move used in minimax, thus we get both score and the move (encoded by MoveCodec)
 	class MoveScore {
-		private final Move move;
+		private final long move;
 		private final int score;
 
-		public MoveScore(Move move, int score) {
+		public MoveScore(long move, int score) {
 			this.move = move;
 			this.score = score;
 		}
 
-		public Move getMove() {
+		public long getMove() {
 			return move;
 		}
 		public int getScore() {
@@ -105,114 +220,22 @@ public class Filipek implements Ai {
 		}
 	}
 
-	// class to hold compound/joint movements as detectives
-	public class DetectiveMoves implements Move {
-		private final List<Move> moves;
-
-		public DetectiveMoves(List<Move> moves) {
-			this.moves = moves;
-		}
-
-		// advance should iterate over all the SingleMoves that detectives have and advance the gameState
-		public Board.GameState advance(Board.GameState gameState) {
-			Board.GameState newGameState = gameState;
-			for (Move move : moves) {
-				newGameState = newGameState.advance(move);
-			}
-			return newGameState;
-		}
-
-		// following methods are not needed for the compound moves of detectives
-		public Piece commencedBy() {
-			return null;
-		}
-
-		public Iterable<ScotlandYard.Ticket> tickets() {
-			return null;
-		}
-
-		@Override
-		public int source() {
-			return -1;
-		}
-
-		@Override
-		public <T> T accept(Visitor<T> visitor) {
-			return null;
-		}
-	}
-
-	// detectives have to move as one person, so that the new game state gets updated with all their moves
-	// thus we need a class, DetectiveMoves that implements the joint movements of detectives and can advance the gameState
-	// this returns all the possible joint/compound movements of detectives
-	public ImmutableSet<Move> generateDetectiveMoves (Board.GameState gameState, ImmutableSet<Move> moves){
-		// make a hashmap where for every detective (key), it will hold all its available moves
-		ImmutableSet<Piece> players = gameState.getPlayers();
-		Map<Piece, List<Move>> movesByDetectives = new HashMap<>(players.size() - 1);
-		for (Piece piece : players) {
-			if (piece.isDetective()) {
-				// best move first initialised to max value for all
-				movesByDetectives.put(piece, new ArrayList<>());
-			}
-		}
-		for (Move move : moves) {
-			Piece detective = move.commencedBy();
-			movesByDetectives.get(detective).add(move);
-		}
-		List<List<Move>> moveCombinations = generateDetectiveMovesCartesian(movesByDetectives);
-		ImmutableSet.Builder<Move> detectiveMoves = ImmutableSet.builder();
-
-		for (List<Move> combination : moveCombinations) {
-			if (combinationIsValid(combination)) {
-				detectiveMoves.add(new DetectiveMoves(combination));
-			}
-		}
-
-		return detectiveMoves.build();
-	}
-
-	// helper function to create all possible combinations of detectiveMoves
-	public List<List<Move>> generateDetectiveMovesCartesian(Map<Piece, List<Move>> movesByDetectives) {
-		List<List<Move>> moveLists = new ArrayList<>(movesByDetectives.values());
-		return Lists.cartesianProduct(moveLists);
-	}
-
-	public boolean combinationIsValid(List<Move> combination) {
-		// set to hold the locations that detectives want to move to
-		Set<Integer> destinations = new HashSet<>();
-		Set<Integer> sources = new HashSet<>();
-		for (Move move : combination) {
-			if (move instanceof Move.SingleMove) {
-				// if destination is already present in the set, return false, so that the combination is not valid
-				if (!destinations.add(((Move.SingleMove) move).destination)) {
-					return false;
-				}
-				if (!sources.add(((Move.SingleMove) move).source())) {
-					return false;
-				}
-			}
-		}
-		return true;
-	}
-
 	// TODO: IMPROVE SCORING, TAKE INTO ACCOUNT SECRET, CONNECTIVITY AND DOUBLE MOVES
-	private int minimaxScore(Board board) {
+	private int minimaxScore(SearchState board) {
 		final int DIST_WEIGHT = 10;
 
-		// Get the ITERATOR over getAvailableMoves()
-		Iterator<Move> moveIterator = board.getAvailableMoves().iterator();
-		// To get the current location, use the iterator to get the first move, and call source() ;)
-		int source = moveIterator.next().source();
-		// NOTE: minmaxScore() is never called from a position where getAvailableMoves() would be empty
+		// The search state knows where Mr. X is
+		int source = board.mrXLocation();
 
 
 		// Score a move based off how far Mr. X is from the two closest detectives
 		List<Integer> distances = detectiveDistances(board, source);
 
-		int min1 = Integer.MAX_VALUE;
-		int min2 = Integer.MAX_VALUE;
+		int min1 = UNREACHABLE_DISTANCE;
+		int min2 = UNREACHABLE_DISTANCE;
 
 		for (int distance : distances) {
+			distance = Math.min(distance, UNREACHABLE_DISTANCE);
 			if (distance < min1) {
 				min2 = min1;
 				min1 = distance;
@@ -221,34 +244,13 @@ public class Filipek implements Ai {
 		}
 
 		// If there is only one detective (i.e. two players), don't factor in the second min. distance
-		if (board.getPlayers().size() == 2) return (DIST_WEIGHT * (min1 - 3));
-
-		return (int) (DIST_WEIGHT * ((min1 - 3) + Math.floor(0.5 * (min2 - 2))));
-	}
-
-	private Board.GameState createGameState(Board board) {
-		// NOTE: Works on Mr. X's turn ONLY
-		// Get the ITERATOR over getAvailableMoves()
-		Iterator<Move> moveIterator = board.getAvailableMoves().iterator();
-		// Use the iterator to get the first Mr. X move, then call source() for his location
-		int mrXLocation = moveIterator.next().source();
-		Player mrX = new Player(MrX.MRX, convertTickets(board.getPlayerTickets(MrX.MRX).get()), mrXLocation);
-
-		ImmutableList.Builder<Player> builder = ImmutableList.builder();
-		for (Piece piece : board.getPlayers()) {
-			if (piece.isDetective()) {
-				builder.add(new Player(piece,
-						convertTickets(board.getPlayerTickets(piece).get()),
-						board.getDetectiveLocation((Detective) piece).get())
-				);
-			}
-		}
+		long score = board.getPlayers().size() == 2 ? DIST_WEIGHT * (min1 - 3)
+				: (long) (DIST_WEIGHT * ((min1 - 3) + Math.floor(0.5 * (min2 - 2))));
 
-		return new MyGameStateFactory().build(board.getSetup(), mrX, builder.build());
+		// Keep clear of the scores of a finished game
+		return (int) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE - 1, score));
 	}
 
-
-
 	// TODO make global constants for the scoring
 	private int score(@Nonnull Board board, Move.SingleMove move) {
 		// The final score of the move
@@ -327,34 +329,29 @@ public class Filipek implements Ai {
 		int score = 0;
 
 
-		// mrX's tickets
-		Optional<Board.TicketBoard> mrXTicketBoard = board.getPlayerTickets(MrX.MRX);
-		ImmutableMap<ScotlandYard.Ticket, Integer> mrXTickets = ImmutableMap.of();
-		if (mrXTicketBoard.isPresent())
-			mrXTickets = convertTickets(mrXTicketBoard.get());
-		else
-			mrXTickets = ImmutableMap.of();
+		// mrX's tickets, as a bitmask of the tickets he has at least one of
+		int mrXTickets = board.getPlayerTickets(MrX.MRX).map(Filipek::ticketMask).orElse(0);
 
+		// Stations the detectives are standing on, built once so each check is a single bit test
+		Occupancy occupied = Occupancy.ofDetectives(board);
 
-		for (int adjacentNode : board.getSetup().graph.adjacentNodes(destination)) {
+		CompiledGraph graph = graph(board);
+		for (int edge = graph.firstEdge(destination); edge < graph.endEdge(destination); edge++) {
 			// First, check if the location is occupied
-			if (checkOccupied(board, adjacentNode)) continue;
+			if (occupied.contains(graph.neighbour(edge))) continue;
 
-			// ...and check that Mr. X can actually make that adjacent available move
-			// First, get all the possible tickets to use
-			ImmutableSet<ScotlandYard.Transport> moves
-					= board.getSetup().graph.edgeValueOrDefault(source, destination, ImmutableSet.of());
-
-			ImmutableMap<ScotlandYard.Ticket, Integer> finalMrXTickets = mrXTickets;
-			if (moves.stream().anyMatch(transport -> finalMrXTickets.getOrDefault(transport.requiredTicket(), 0) > 0)) {
-				score += WEIGHT; // Stream terminates immediately once condition met
-			}
+			// ...and check that Mr. X can actually make that adjacent available move,
+			// i.e. he holds one of the tickets that can be used along the edge
+			if ((graph.tickets(edge) & mrXTickets) != 0) score += WEIGHT;
 		}
 
 		return score;
 	}
 
 	// Returns the distance of each detective to Mr. X (Used in: score())
+	// The distances take the counts of the tickets each detective has left into account, and are cached by the detective's
+	// station and tickets, so only the first position with a detective there searches the graph
+	// (Integer.MAX_VALUE if they can't reach him)
 	private List<Integer> detectiveDistances(Board board, int mrXLocation) {
 		List<Integer> distances = new ArrayList<>();
 		for (Piece piece : board.getPlayers()) {
@@ -362,168 +359,44 @@ public class Filipek implements Ai {
 				Optional<Board.TicketBoard> tickets = (board.getPlayerTickets(piece));
 				Optional<Integer> detectiveLocation = board.getDetectiveLocation((Detective) piece);
 				if (tickets.isPresent() && detectiveLocation.isPresent()) {
-//					System.out.println("current detective location: " + detectiveLocation.get() + " mrXLocation: " + mrXLocation);
-					distances.add(distanceFromDetective(board, mrXLocation, detectiveLocation.get(), tickets.get()));
+					Board.TicketBoard ticketBoard = tickets.get();
+					distances.add(this.distances.distance(detectiveLocation.get(), mrXLocation,
+							ticketBoard.getCount(ScotlandYard.Ticket.TAXI),
+							ticketBoard.getCount(ScotlandYard.Ticket.BUS),
+							ticketBoard.getCount(ScotlandYard.Ticket.UNDERGROUND)));
 				}
 			}
 		}
 		return distances;
 	}
 
-	// Evaluates the use of a secret ticket for a move (Used in: score())
-	private int scoreSecret(Board board, int moveSource, int[] secretConnectivity) {
-		// More possible transport types = better use of secret ticket
-
-		HashSet<ScotlandYard.Transport> transports = new HashSet<>();
-
-		// For each possible move, adds the different types of transport to a hash set
-		for (int adjacentNode : board.getSetup().graph.adjacentNodes(moveSource)) {
-			transports.addAll(board.getSetup().graph.edgeValueOrDefault(moveSource, adjacentNode, ImmutableSet.of()));
-			// There are only max 3 different transport types, save some time...
-			if (transports.size() == 3) break;
-		}
-
-		return secretConnectivity[transports.size() - 1];
-	}
-
-	// Checks if a location is occupied by a detective (Used in: destinationConnectivity())
-	private boolean checkOccupied(@Nonnull Board board, int location) {
-		for (Piece piece : board.getPlayers()) {
-			if (piece.isDetective()) {
-				Optional<Integer> detectiveLocation = board.getDetectiveLocation((Piece.Detective) piece);
-				if (detectiveLocation.isPresent() && detectiveLocation.get() == location) return true;
-			}
-		}
-		return false;
-	}
-
-	// Get the shortest distance from a detective to Mr. X (Used in: detectiveDistances())
-	// TODO Add a way of keeping track of the tickets, possibly by adding a ticket board to the pairs
-	public int distanceFromDetective(@Nonnull Board board, int target, int source, Board.TicketBoard ticketBoard) {
-		// tickets that detective possesses
-		ImmutableMap<ScotlandYard.Ticket, Integer> tickets = convertTickets(ticketBoard);
-
-		// Visited nodes
-		HashSet<Integer> visited = new HashSet<>();
-		// Distance of each node from source
-		HashMap<Integer, Integer> distances = new HashMap<>();
-		// Queue of nodes to be visited
-		Queue<moveState> queue = new LinkedList<>();
-
-		// Initialise all distances with infinity initially (no null values)
-		board.getSetup().graph.nodes().forEach(location -> distances.put(location, Integer.MAX_VALUE));
-
-		// set the source (detective location) to have distance 0 to itself
-		distances.replace(source, 0);
-		// set the moveState for the source node, where detective is standing
-		moveState sourceState = new moveState(source, null, tickets);
-
-		// Add the source's adjacent nodes to the queue, and mark it as visited
-		for (int adjacentNode : board.getSetup().graph.adjacentNodes(source)) {
-			for (ScotlandYard.Transport ticketType : board.getSetup().graph.edgeValueOrDefault(source, adjacentNode, ImmutableSet.of()))
-			{
-				// if detective has the ticket for the transport needed to the adjacent node, use it and add to queue a new move state with updated tickets
-				if(tickets != null && tickets.containsKey(ticketType.requiredTicket()) && tickets.get(ticketType.requiredTicket()) > 0) {
-					ImmutableMap<ScotlandYard.Ticket, Integer> newTickets = useTicket(tickets, ticketType);
-					queue.add(new moveState(adjacentNode, sourceState, newTickets));
-				}
-			}
-		}
-		visited.add(source);
-
-		while (!queue.isEmpty()) {
-			// Get next node off of queue
-			moveState current = queue.poll();
-			// Update the distance to the current node
-			int minDistance = Math.min(distances.get(current.getPosition()), distances.get(current.getParent().getPosition()) + 1);
-			distances.replace(current.getPosition(), minDistance);
-
-			// If we've reached our target, return the distance to it
-			if (current.getPosition() == target) {
-//				System.out.println(current.getTickets().toString());
-				return distances.get(current.getPosition());
-			}
-
-			// If the node has not yet been visited, add adjacent nodes to the queue and mark as visited
-			if (!visited.contains(current.getPosition())) {
-//				System.out.println("not yet visited: " + current.getPosition());
-				for (int adjacentNode : board.getSetup().graph.adjacentNodes(current.getPosition())) {
-//					System.out.println(adjacentNode);
-					for (ScotlandYard.Transport ticketType : board.getSetup().graph.edgeValueOrDefault(current.getPosition(), adjacentNode, ImmutableSet.of()))
-					{
-						ImmutableMap<ScotlandYard.Ticket, Integer> ticketsHere = current.getTickets();	// current MoveState has already only the correct tickets left
-//						System.out.println(ticketType.requiredTicket());
-						int ticketsOfType = (ticketsHere != null && tickets.get(ticketType.requiredTicket()) != null) ? ticketsHere.get(ticketType.requiredTicket()) : 0;
-//						System.out.println(ticketsOfType);
-						if(ticketsOfType > 0) {
-							ImmutableMap<ScotlandYard.Ticket, Integer> newTickets = useTicket(ticketsHere, ticketType);
-							queue.add(new moveState(adjacentNode, current, newTickets));
-						}
-					}
-				}
-				visited.add(current.getPosition());
-			}
-		}
-
-		//System.out.println(distances);
-
-		// Otherwise, target not found i.e. not reachable - return max distance
-		return Integer.MAX_VALUE;
-	}
-
-	// Return new ImmutableMap of TicketBoard that uses the ticket for the transport (Used in: distanceFromDetective())
-	public ImmutableMap<ScotlandYard.Ticket, Integer> useTicket(ImmutableMap<ScotlandYard.Ticket, Integer> tickets,
-																ScotlandYard.Transport transport) {
-		ImmutableMap.Builder<ScotlandYard.Ticket, Integer> builder = ImmutableMap.builder();
-
-		for (ScotlandYard.Ticket ticket : tickets.keySet()) {
-			if (transport.requiredTicket().equals(ticket)) {
-				builder.put(ticket, tickets.get(ticket) - 1);
-			}
-			else {
-				builder.put(ticket, tickets.get(ticket));
-			}
-		}
-		return builder.build();
-	}
-
-	// Convert from TicketBoard into Map<Ticket, Integer> (Used in: distanceFromDetective())
-	public ImmutableMap<ScotlandYard.Ticket, Integer> convertTickets(Board.TicketBoard ticketBoard) {
-		// map to store the tickets
-		Map<ScotlandYard.Ticket, Integer> tickets = new HashMap<>();
-
-		// iterate over all ticket types and add according counts to the map
+	// Returns the tickets a player has at least one of, as a bitmask (Used in: scoreConnectivity())
+	private static int ticketMask(Board.TicketBoard ticketBoard) {
+		int tickets = 0;
 		for (ScotlandYard.Ticket ticket : ScotlandYard.Ticket.values()) {
-			tickets.put(ticket, ticketBoard.getCount(ticket));
+			if (ticketBoard.getCount(ticket) > 0) tickets |= CompiledGraph.bit(ticket);
 		}
-		return ImmutableMap.copyOf(tickets);
+		return tickets;
 	}
-	// --------------------
 
-	// ---------- Helper Classes ----------
-	// Class to hold the nodes that distanceFromDetective searches through, and tickets left
-	class moveState {
-		int position;
-		moveState parent;
-		ImmutableMap<ScotlandYard.Ticket, Integer> tickets;
-
-		moveState(int position, moveState parent, ImmutableMap<ScotlandYard.Ticket, Integer> tickets) {
-			this.position = position;
-			this.parent = parent;
-			this.tickets = tickets;
-		}
+	// Evaluates the use of a secret ticket for a move (Used in: score())
+	private int scoreSecret(Board board, int moveSource, int[] secretConnectivity) {
+		// More possible transport types = better use of secret ticket
 
-		public int getPosition() {
-			return position;
+		// For each possible move, adds the different types of transport to a bitmask
+		CompiledGraph graph = graph(board);
+		int transports = 0;
+		for (int edge = graph.firstEdge(moveSource); edge < graph.endEdge(moveSource); edge++) {
+			transports |= graph.transports(edge);
 		}
 
-		public moveState getParent() {
-			return parent;
-		}
+		// There are only max 3 different transport types scored (a ferry counts as one of them)
+		return secretConnectivity[Math.min(Integer.bitCount(transports), 3) - 1];
+	}
 
-		public ImmutableMap<ScotlandYard.Ticket, Integer> getTickets() {
-			return tickets;
-		}
+	// Returns the compiled graph of the board's setup, which is shared by every game of the setup
+	private CompiledGraph graph(Board board) {
+		return SetupRegistry.graph(board.getSetup());
 	}
 	// --------------------
 
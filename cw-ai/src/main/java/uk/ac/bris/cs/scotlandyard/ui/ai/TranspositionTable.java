@@ -0,0 +1,80 @@
+package uk.ac.bris.cs.scotlandyard.ui.ai;
+
+import java.util.Arrays;
+
+import uk.ac.bris.cs.scotlandyard.model.MoveCodec;
+
+// Fixed size hash table of search results, keyed by the 64-bit position keys of the model (Used in: Filipek.minimax())
+// Each entry is three primitive arrays at the same index: the position's key XOR-ed with the other two (so an entry torn
+// by threads writing it at the same time just doesn't match any more), the packed data (score, depth, bound type and the
+// search it was stored in) and the best move, encoded by MoveCodec
+final class TranspositionTable {
+	// Bound types: the score is exact, at least the real score (the search failed high) or at most it (failed low)
+	static final int EXACT = 0, LOWER = 1, UPPER = 2;
+	// Returned by probe() when the position isn't in the table
+	static final long MISS = 0;
+
+	private static final int ENTRY_BYTES = 3 * Long.BYTES;
+	private static final long VALID = 1L << 63;			// Set in every stored data, so it's never MISS
+
+	private final long[] checks;
+	private final long[] data;
+	private final long[] moves;
+	private final int mask;
+	private int age;									// Counts the searches, entries of older searches are replaced first
+
+	// Sized to the largest power of two number of entries that fits into the budget
+	TranspositionTable(long bytes) {
+		int entries = (int) Math.min(Long.highestOneBit(Math.max(bytes / ENTRY_BYTES, 1)), 1 << 30);
+		this.checks = new long[entries];
+		this.data = new long[entries];
+		this.moves = new long[entries];
+		this.mask = entries - 1;
+	}
+
+	// Called at the start of every search (pickMove()), so the entries of the earlier ones can make way
+	void newSearch() { age = (age + 1) & 0xFF; }
+
+	// Forgets every entry
+	void clear() {
+		Arrays.fill(checks, 0);
+		Arrays.fill(data, 0);
+		Arrays.fill(moves, 0);
+	}
+
+	int size() { return checks.length; }
+
+	// Returns the packed data stored for the position, or MISS
+	long probe(long key) {
+		int index = (int) key & mask;
+		long stored = data[index], move = moves[index];
+		return (checks[index] ^ stored ^ move) == key ? stored : MISS;
+	}
+
+	// Returns the best move stored for the position, or MoveCodec.NONE
+	long probeMove(long key) {
+		int index = (int) key & mask;
+		long stored = data[index], move = moves[index];
+		return (checks[index] ^ stored ^ move) == key && stored != MISS ? move : MoveCodec.NONE;
+	}
+
+	// Depth-preferred replacement: an entry is only replaced by a search at least as deep, unless it's from an older search
+	void store(long key, int depth, int bound, int score, long move) {
+		int index = (int) key & mask;
+		long old = data[index];
+		if (old != MISS && age(old) == age && depth(old) > depth) return;
+		long stored = VALID | (long) age << 42 | (long) bound << 40 | (long) (depth & 0xFF) << 32 | (score & 0xFFFFFFFFL);
+		checks[index] = key ^ stored ^ move;
+		data[index] = stored;
+		moves[index] = move;
+	}
+
+	// ---------- Packed data ----------
+	static int score(long data) { return (int) data; }
+
+	static int depth(long data) { return (int) (data >>> 32) & 0xFF; }
+
+	static int bound(long data) { return (int) (data >>> 40) & 0b11; }
+
+	private static int age(long data) { return (int) (data >>> 42) & 0xFF; }
+}
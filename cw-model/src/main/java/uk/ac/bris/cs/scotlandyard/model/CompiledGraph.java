@@ -0,0 +1,191 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * A read-only, array based view of a {@link GameSetup#graph} for the hot loops of move generation
+ * and path finding.
+ * <br>
+ * Stations are used directly as indices. The edges leaving {@code station} are the edge indices
+ * {@code [firstEdge(station), endEdge(station))}; for each of those {@link #neighbour(int)} is the
+ * station at the other end, {@link #transports(int)} is a bitmask of {@link Transport} ordinals and
+ * {@link #tickets(int)} is the matching bitmask of {@link Transport#requiredTicket()} ordinals.
+ * Neighbours are sorted in ascending order.
+ * <br>
+ * The two-hop paths from {@code station} (which double moves are made along) are precomputed too:
+ * they are the path indices {@code [firstPath(station), endPath(station))}, and each path is a pair
+ * of edges, {@link #pathFirstEdge(int)} leaving the station and {@link #pathSecondEdge(int)}
+ * leaving the station that edge leads to. Paths back to the station itself are included.
+ */
+public final class CompiledGraph {
+	private final int[] offsets;							// Station -> first edge index, offsets[station + 1] is the end
+	private final int[] neighbours;							// Edge index -> station at the other end
+	private final byte[] transports;						// Edge index -> bitmask of Transport ordinals
+	private final byte[] tickets;							// Edge index -> bitmask of Ticket ordinals
+	private final boolean[] stations;						// Station -> whether the station is on the graph
+	private final int stationCount;
+	private final int[] pathOffsets;						// Station -> first two-hop path, pathOffsets[station + 1] is the end
+	private final int[] pathFirstEdges;						// Path index -> edge from the station
+	private final int[] pathSecondEdges;					// Path index -> edge from the end of the first edge
+
+	private CompiledGraph(int[] offsets, int[] neighbours, byte[] transports, byte[] tickets,
+	                      boolean[] stations, int stationCount) {
+		this.offsets = offsets;
+		this.neighbours = neighbours;
+		this.transports = transports;
+		this.tickets = tickets;
+		this.stations = stations;
+		this.stationCount = stationCount;
+
+		// Every edge followed by every edge leaving its end
+		int capacity = stations.length;
+		this.pathOffsets = new int[capacity + 1];
+		for (int station = 0; station < capacity; station++) {
+			int paths = 0;
+			for (int edge = offsets[station]; edge < offsets[station + 1]; edge++) paths += degree(neighbours[edge]);
+			pathOffsets[station + 1] = pathOffsets[station] + paths;
+		}
+		this.pathFirstEdges = new int[pathOffsets[capacity]];
+		this.pathSecondEdges = new int[pathOffsets[capacity]];
+		int path = 0;
+		for (int station = 0; station < capacity; station++) {
+			for (int first = offsets[station]; first < offsets[station + 1]; first++) {
+				int middle = neighbours[first];
+				for (int second = offsets[middle]; second < offsets[middle + 1]; second++) {
+					pathFirstEdges[path] = first;
+					pathSecondEdges[path++] = second;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @return the compiled view of the setup's graph
+	 */
+	@Nonnull public static CompiledGraph compile(@Nonnull GameSetup setup) {
+		return compile(setup.graph);
+	}
+
+	/**
+	 * @param graph the game graph
+	 * @return the compiled view of the graph
+	 * @throws IllegalArgumentException if the graph has a negative station
+	 */
+	@Nonnull public static CompiledGraph compile(@Nonnull ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph) {
+		int capacity = 0;
+		for (int station : graph.nodes()) {
+			if (station < 0) throw new IllegalArgumentException("Negative station: " + station);
+			capacity = Math.max(capacity, station + 1);
+		}
+
+		boolean[] stations = new boolean[capacity];
+		int[] offsets = new int[capacity + 1];
+		for (int station : graph.nodes()) {
+			stations[station] = true;
+			offsets[station + 1] = graph.adjacentNodes(station).size();
+		}
+		for (int station = 0; station < capacity; station++) offsets[station + 1] += offsets[station];
+
+		int[] neighbours = new int[offsets[capacity]];
+		byte[] transports = new byte[neighbours.length];
+		byte[] tickets = new byte[neighbours.length];
+		for (int station : graph.nodes()) {
+			int[] adjacent = graph.adjacentNodes(station).stream().mapToInt(Integer::intValue).sorted().toArray();
+			System.arraycopy(adjacent, 0, neighbours, offsets[station], adjacent.length);
+			for (int edge = offsets[station]; edge < offsets[station + 1]; edge++) {
+				for (Transport t : graph.edgeValueOrDefault(station, neighbours[edge], ImmutableSet.of())) {
+					transports[edge] |= (byte) (1 << t.ordinal());
+					tickets[edge] |= (byte) (1 << t.requiredTicket().ordinal());
+				}
+			}
+		}
+		return new CompiledGraph(offsets, neighbours, transports, tickets, stations, graph.nodes().size());
+	}
+
+	/**
+	 * @return one more than the largest station, i.e. the size of an array indexed by station
+	 */
+	public int capacity() { return stations.length; }
+	/**
+	 * @return the number of stations on the graph
+	 */
+	public int stationCount() { return stationCount; }
+	/**
+	 * @param station the station
+	 * @return whether the station is on the graph
+	 */
+	public boolean contains(int station) { return station >= 0 && station < stations.length && stations[station]; }
+	/**
+	 * @param station the station, which must be on the graph
+	 * @return the index of the first edge leaving the station
+	 */
+	public int firstEdge(int station) { return offsets[station]; }
+	/**
+	 * @param station the station, which must be on the graph
+	 * @return one past the index of the last edge leaving the station
+	 */
+	public int endEdge(int station) { return offsets[station + 1]; }
+	/**
+	 * @param station the station, which must be on the graph
+	 * @return the number of stations adjacent to the station
+	 */
+	public int degree(int station) { return offsets[station + 1] - offsets[station]; }
+	/**
+	 * @param edge the edge index
+	 * @return the station at the other end of the edge
+	 */
+	public int neighbour(int edge) { return neighbours[edge]; }
+	/**
+	 * @param edge the edge index
+	 * @return bitmask of the {@link Transport} ordinals connecting the two stations
+	 */
+	public int transports(int edge) { return transports[edge]; }
+	/**
+	 * @param edge the edge index
+	 * @return bitmask of the {@link Ticket} ordinals that can be used along the edge
+	 */
+	public int tickets(int edge) { return tickets[edge]; }
+	/**
+	 * @param station the station, which must be on the graph
+	 * @return a copy of the stations adjacent to the station
+	 */
+	@Nonnull public int[] neighbours(int station) {
+		return Arrays.copyOfRange(neighbours, offsets[station], offsets[station + 1]);
+	}
+
+	/**
+	 * @param station the station, which must be on the graph
+	 * @return the index of the first two-hop path from the station
+	 */
+	public int firstPath(int station) { return pathOffsets[station]; }
+	/**
+	 * @param station the station, which must be on the graph
+	 * @return one past the index of the last two-hop path from the station
+	 */
+	public int endPath(int station) { return pathOffsets[station + 1]; }
+	/**
+	 * @param path the path index
+	 * @return the edge the path starts with
+	 */
+	public int pathFirstEdge(int path) { return pathFirstEdges[path]; }
+	/**
+	 * @param path the path index
+	 * @return the edge the path ends with, which leaves the station {@link #pathFirstEdge(int)} leads to
+	 */
+	public int pathSecondEdge(int path) { return pathSecondEdges[path]; }
+
+	/**
+	 * @param ticket the ticket
+	 * @return the single bit representing the ticket in a {@link #tickets(int)} mask
+	 */
+	public static int bit(@Nonnull Ticket ticket) { return 1 << ticket.ordinal(); }
+}
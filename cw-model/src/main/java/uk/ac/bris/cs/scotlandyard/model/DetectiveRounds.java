@@ -0,0 +1,241 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.LongToIntFunction;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Generates the detectives' rounds of a position one at a time: each round is the moves of every
+ * detective still to move, encoded with {@link MoveCodec}, in the order they are made.
+ * <br>
+ * The detectives move in the order of the players, each one out of the stations left free by the
+ * ones before (so a detective can take the station another has just left, but two detectives never
+ * end on the same station). A detective who is blocked in when their turn comes is skipped, and a
+ * round stops at the move that catches Mr X, as the game does. Rounds which only a different order
+ * of the detectives can reach (taking the station of a detective who moves later) aren't generated.
+ * <br>
+ * Rounds are found by a depth first walk over the detectives' moves, so only as many are generated
+ * as the caller takes, and a collision prunes every round that would have followed it. Each
+ * detective's moves can be ordered by a score, best first, and cut down to the best few.
+ */
+public final class DetectiveRounds implements Iterator<long[]> {
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	private final CompiledGraph graph;
+	private final Piece[] pieces;						// Level -> detective moving at that level of the walk
+	private final int[] sources;						// Level -> station the detective starts the round on
+	private final int[] available;						// Level -> bitmask of the tickets the detective can use
+	private final boolean[] occupied;					// Station -> whether a detective is standing on it, as the walk goes
+	private final int mrXLocation;
+	@Nullable private final LongToIntFunction score;
+	private final int width;
+	@Nullable private final Predicate<long[]> filter;	// Whether to keep a round
+
+	private final long[][] options;						// Level -> the detective's moves at that point of the walk
+	private final int[] counts;							// Level -> number of options
+	private final int[] cursors;						// Level -> option chosen, or -1 if the detective was blocked in
+	private final int[] able;							// Level -> bitmask of the levels not yet blocked in when it's reached
+	private int depth;									// Number of levels chosen, less than the number of levels after a capture
+	private long[] next;
+
+	DetectiveRounds(CompiledGraph graph, Piece[] pieces, int[] sources, int[] available, boolean[] occupied,
+	                int mrXLocation, @Nullable LongToIntFunction score, int width, @Nullable Predicate<long[]> filter) {
+		if (width < 1) throw new IllegalArgumentException("Width must be at least 1: " + width);
+		this.graph = graph;
+		this.pieces = pieces;
+		this.sources = sources;
+		this.available = available;
+		this.occupied = occupied;
+		this.mrXLocation = mrXLocation;
+		this.score = score;
+		this.width = width;
+		this.filter = filter;
+		this.options = new long[pieces.length][];
+		this.counts = new int[pieces.length];
+		this.cursors = new int[pieces.length];
+		this.able = new int[pieces.length + 1];
+		this.able[0] = (1 << pieces.length) - 1;
+		this.next = pieces.length == 0 ? null : keep(descend(0));
+	}
+
+	/**
+	 * The rounds of a board on the detectives' turn, read through the {@link Board} methods
+	 *
+	 * @param board the board
+	 * @param mrXLocation the station Mr X is standing on
+	 * @param score scores a detective's move, higher first, or null to keep the order moves are
+	 * generated in
+	 * @param width the number of each detective's best moves to keep, {@link Integer#MAX_VALUE} for all
+	 * @return the rounds, none if it's Mr X's turn or the game is over
+	 */
+	@Nonnull public static DetectiveRounds of(@Nonnull Board board, int mrXLocation,
+	                                          @Nullable LongToIntFunction score, int width) {
+		CompiledGraph graph = SetupRegistry.graph(board.getSetup());
+		boolean[] occupied = new boolean[graph.capacity()];
+		for (Piece piece : board.getPlayers()) {
+			if (piece.isDetective())
+				board.getDetectiveLocation((Detective) piece).ifPresent(location -> occupied[location] = true);
+		}
+
+		// The detectives still to move are the ones with available moves, in the order of the players
+		ImmutableSet<Piece> toMove = board.getAvailableMoves().stream().map(Move::commencedBy).collect(ImmutableSet.toImmutableSet());
+		Piece[] pieces = toMove.stream().anyMatch(Piece::isMrX) ? new Piece[0]
+				: board.getPlayers().stream().filter(toMove::contains).toArray(Piece[]::new);
+
+		int[] sources = new int[pieces.length];
+		int[] available = new int[pieces.length];
+		for (int level = 0; level < pieces.length; level++) {
+			sources[level] = board.getDetectiveLocation((Detective) pieces[level]).orElseThrow();
+			Board.TicketBoard tickets = board.getPlayerTickets(pieces[level]).orElseThrow();
+			for (Ticket ticket : TICKETS) {
+				if (tickets.getCount(ticket) > 0) available[level] |= CompiledGraph.bit(ticket);
+			}
+			available[level] &= ~(CompiledGraph.bit(Ticket.DOUBLE) | CompiledGraph.bit(Ticket.SECRET));
+		}
+		return new DetectiveRounds(graph, pieces, sources, available, occupied, mrXLocation, score, width, null);
+	}
+
+	@Override public boolean hasNext() { return next != null; }
+
+	/**
+	 * @return the moves of the next round, in the order they have to be made
+	 */
+	@Nonnull @Override public long[] next() {
+		if (next == null) throw new NoSuchElementException();
+		long[] round = next;
+		next = keep(backtrack());
+		return round;
+	}
+
+	// Skips the rounds the filter doesn't keep, from the given one on
+	private long[] keep(long[] round) {
+		while (round != null && filter != null && !filter.test(round)) round = backtrack();
+		return round;
+	}
+
+	// Chooses the first option of every level from the given one down, and returns the round it makes
+	private long[] descend(int level) {
+		for (; level < pieces.length; level++) {
+			// Like the game, a detective who has been blocked in at any point of the round is skipped
+			if ((able[level] & (1 << level)) != 0) generate(level);
+			else counts[level] = 0;
+			if (counts[level] == 0) {
+				cursors[level] = -1;
+				able[level + 1] = able[level];
+				continue;
+			}
+			cursors[level] = 0;
+			if (choose(level)) {
+				depth = level + 1;
+				return round();
+			}
+		}
+		depth = pieces.length;
+		return round();
+	}
+
+	// Moves on to the next option of the deepest level that has one, returning null once every round is done
+	private long[] backtrack() {
+		for (int level = depth - 1; level >= 0; level--) {
+			if (cursors[level] < 0) continue;
+			unchoose(level);
+			if (++cursors[level] < counts[level]) {
+				if (choose(level)) {
+					depth = level + 1;
+					return round();
+				}
+				return descend(level + 1);
+			}
+		}
+		return null;
+	}
+
+	// Generates the moves of the detective at the level out of the stations currently free
+	private void generate(int level) {
+		int source = sources[level];
+		long[] moves = options[level];
+		if (moves == null) moves = options[level] = new long[8];
+		int count = 0;
+		for (int edge = graph.firstEdge(source); edge < graph.endEdge(source); edge++) {
+			int destination = graph.neighbour(edge);
+			if (occupied[destination]) continue;
+			for (int usable = graph.tickets(edge) & available[level]; usable != 0; usable &= usable - 1) {
+				if (count == moves.length) moves = options[level] = Arrays.copyOf(moves, count * 2);
+				Ticket ticket = TICKETS[Integer.numberOfTrailingZeros(usable)];
+				moves[count++] = MoveCodec.single(pieces[level], source, ticket, destination);
+			}
+		}
+		if (score != null) sort(moves, count);
+		counts[level] = Math.min(count, width);
+	}
+
+	// Whether the detective at the level has a move out of the stations currently free
+	private boolean hasMove(int level) {
+		int source = sources[level];
+		for (int edge = graph.firstEdge(source); edge < graph.endEdge(source); edge++) {
+			if ((graph.tickets(edge) & available[level]) != 0 && !occupied[graph.neighbour(edge)]) return true;
+		}
+		return false;
+	}
+
+	// Sorts the moves by descending score, keeping the generated order of equal scores
+	private void sort(long[] moves, int count) {
+		int[] scores = new int[count];
+		for (int i = 0; i < count; i++) scores[i] = score.applyAsInt(moves[i]);
+		for (int i = 1; i < count; i++) {
+			long move = moves[i];
+			int moveScore = scores[i];
+			int j = i - 1;
+			for (; j >= 0 && scores[j] < moveScore; j--) {
+				moves[j + 1] = moves[j];
+				scores[j + 1] = scores[j];
+			}
+			moves[j + 1] = move;
+			scores[j + 1] = moveScore;
+		}
+	}
+
+	// Makes the chosen option of the level on the occupancy, returning whether it catches Mr X
+	private boolean choose(int level) {
+		int destination = MoveCodec.destination1(options[level][cursors[level]]);
+		occupied[sources[level]] = false;
+		occupied[destination] = true;
+		if (destination == mrXLocation) return true;
+
+		// Detectives the move has blocked in drop out of the rest of the round
+		int stillAble = able[level];
+		for (int later = level + 1; later < pieces.length; later++) {
+			if ((stillAble & (1 << later)) != 0 && !hasMove(later)) stillAble &= ~(1 << later);
+		}
+		able[level + 1] = stillAble;
+		return false;
+	}
+
+	private void unchoose(int level) {
+		occupied[MoveCodec.destination1(options[level][cursors[level]])] = false;
+		occupied[sources[level]] = true;
+	}
+
+	// The chosen moves of the levels walked so far
+	private long[] round() {
+		int size = 0;
+		for (int level = 0; level < depth; level++) if (cursors[level] >= 0) size++;
+		if (size == 0) return null;
+		long[] round = new long[size];
+		int i = 0;
+		for (int level = 0; level < depth; level++) {
+			if (cursors[level] >= 0) round[i++] = options[level][cursors[level]];
+		}
+		return round;
+	}
+}
@@ -0,0 +1,96 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Comparator;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Static helpers for treating positions that only differ by which detective is which as the same.
+ * <br>
+ * The rules never look at a detective's colour, only at where they stand, the tickets they hold and
+ * whether they are still to move, so swapping two detectives (with their tickets) gives a position
+ * that plays exactly the same. The canonical form of a position hands the detectives' locations,
+ * tickets and turns out to the detective pieces in the order of their locations: the canonical key
+ * is the {@link Zobrist} key of that position, the same for every relabelling of the detectives. In
+ * particular, detectives with equal ticket boards can swap stations without changing the key.
+ */
+public final class DetectiveSymmetry {
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	private DetectiveSymmetry() {}
+
+	/**
+	 * @param board the board
+	 * @return the board's detectives in canonical order, by the station they stand on
+	 */
+	@Nonnull public static ImmutableList<Piece> canonicalOrder(@Nonnull Board board) {
+		return board.getPlayers().stream()
+				.filter(Piece::isDetective)
+				.sorted(Comparator.comparingInt(piece -> board.getDetectiveLocation((Detective) piece).orElseThrow()))
+				.collect(ImmutableList.toImmutableList());
+	}
+
+	/**
+	 * @param board the board
+	 * @param key the {@link Zobrist} key of the board's position
+	 * @param remaining the players still to move this round
+	 * @return the key of the position's canonical form, equal for positions that only differ by a
+	 * relabelling of the detectives
+	 */
+	public static long canonicalKey(@Nonnull Board board, long key, @Nonnull Set<Piece> remaining) {
+		Piece[] detectives = board.getPlayers().stream().filter(Piece::isDetective).toArray(Piece[]::new);
+		int[] locations = new int[detectives.length];
+		int[][] tickets = new int[detectives.length][TICKETS.length];
+		int remainingMask = 0;
+		for (int i = 0; i < detectives.length; i++) {
+			locations[i] = board.getDetectiveLocation((Detective) detectives[i]).orElseThrow();
+			Board.TicketBoard ticketBoard = board.getPlayerTickets(detectives[i]).orElseThrow();
+			for (Ticket ticket : TICKETS) tickets[i][ticket.ordinal()] = ticketBoard.getCount(ticket);
+			if (remaining.contains(detectives[i])) remainingMask |= 1 << i;
+		}
+		return canonicalKey(key, detectives, locations, tickets, remainingMask, 0);
+	}
+
+	/**
+	 * Swaps the detectives' features in a Zobrist key for those of the canonical form
+	 *
+	 * @param key the Zobrist key of the position
+	 * @param pieces player index -> piece
+	 * @param locations player index -> station
+	 * @param tickets player index -> ticket ordinal -> count
+	 * @param remaining bit i is set if player i is still to move this round
+	 * @param first the player index of the first detective, the detectives run to the end of the arrays
+	 * @return the canonical key
+	 */
+	static long canonicalKey(long key, Piece[] pieces, int[] locations, int[][] tickets, int remaining, int first) {
+		// Detectives by location (insertion sort, there are only a handful)
+		int count = pieces.length - first;
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++) {
+			int player = first + i, j = i - 1;
+			for (; j >= 0 && locations[order[j]] > locations[player]; j--) order[j + 1] = order[j];
+			order[j + 1] = player;
+		}
+
+		// Each piece drops its own features and takes those of the detective in its place of the order
+		for (int i = 0; i < count; i++) {
+			int player = first + i, canonical = order[i];
+			if (canonical == player) continue;
+			key ^= features(pieces[player], locations[player], tickets[player], (remaining & (1 << player)) != 0)
+					^ features(pieces[player], locations[canonical], tickets[canonical], (remaining & (1 << canonical)) != 0);
+		}
+		return key;
+	}
+
+	private static long features(Piece piece, int location, int[] tickets, boolean remaining) {
+		long key = Zobrist.location(piece, location);
+		for (Ticket ticket : TICKETS) key ^= Zobrist.tickets(piece, ticket, tickets[ticket.ordinal()]);
+		return remaining ? key ^ Zobrist.remaining(piece) : key;
+	}
+}
@@ -0,0 +1,108 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * The number of moves between every pair of stations of a setup's graph, for each set of tickets a
+ * player might be holding.
+ * <br>
+ * A player can only move along the edges they hold a ticket for, so the distances depend on which
+ * types of ticket they have. There is one table for every subset of {@link Ticket#TAXI},
+ * {@link Ticket#BUS} and {@link Ticket#UNDERGROUND}, plus one for a player holding a
+ * {@link Ticket#SECRET} ticket, which can be used along any edge. The counts of the tickets aren't
+ * taken into account: the distances are the fewest moves if the player never runs out.
+ * <br>
+ * The tables are computed once per setup by a breadth first search from every station, and shared
+ * through the {@link SetupRegistry}. Each one takes a byte per pair of stations (about 40 KB for the
+ * standard map), so a lookup is a single array read.
+ */
+public final class DistanceTable {
+	/**
+	 * Returned for stations that can't be reached
+	 */
+	public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	private static final int UNREACHABLE_BYTE = 0xFF;
+	private static final int SUBSETS = 8;					// Subsets of taxi, bus and underground, by ticket bit
+	private static final int ANY_EDGE = SUBSETS;			// The table of a player holding a secret ticket
+	private static final int TRANSPORT_TICKETS = CompiledGraph.bit(Ticket.TAXI)
+			| CompiledGraph.bit(Ticket.BUS) | CompiledGraph.bit(Ticket.UNDERGROUND);
+
+	private static final SetupRegistry.Derived<DistanceTable> DERIVED = setup -> new DistanceTable(SetupRegistry.graph(setup));
+
+	private final int capacity;
+	private final byte[][] tables;							// Subset -> from * capacity + to -> distance
+
+	private DistanceTable(CompiledGraph graph) {
+		if (Ticket.TAXI.ordinal() != 0 || Ticket.BUS.ordinal() != 1 || Ticket.UNDERGROUND.ordinal() != 2)
+			throw new AssertionError("The subsets are indexed by the tickets' bits");
+		this.capacity = graph.capacity();
+		this.tables = new byte[SUBSETS + 1][];
+		for (int subset = 0; subset < SUBSETS; subset++) tables[subset] = compute(graph, subset);
+		tables[ANY_EDGE] = compute(graph, -1);
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @return the distance table of the setup's graph, computed on first request
+	 * @throws IllegalArgumentException if two stations are 255 or more moves apart
+	 */
+	@Nonnull public static DistanceTable of(@Nonnull GameSetup setup) { return SetupRegistry.get(setup, DERIVED); }
+
+	/**
+	 * @param from a station
+	 * @param to a station
+	 * @return the fewest moves from one station to the other along any edges, or {@link #UNREACHABLE}
+	 */
+	public int distance(int from, int to) { return lookup(ANY_EDGE, from, to); }
+
+	/**
+	 * @param from a station
+	 * @param to a station
+	 * @param tickets bitmask of the tickets the player holds (see {@link CompiledGraph#bit(Ticket)}),
+	 * only which types they have matters
+	 * @return the fewest moves from one station to the other using the tickets, or {@link #UNREACHABLE}
+	 */
+	public int distance(int from, int to, int tickets) {
+		int subset = (tickets & CompiledGraph.bit(Ticket.SECRET)) != 0 ? ANY_EDGE : tickets & TRANSPORT_TICKETS;
+		return lookup(subset, from, to);
+	}
+
+	private int lookup(int subset, int from, int to) {
+		if (from < 0 || from >= capacity || to < 0 || to >= capacity) return UNREACHABLE;
+		int distance = tables[subset][from * capacity + to] & 0xFF;
+		return distance == UNREACHABLE_BYTE ? UNREACHABLE : distance;
+	}
+
+	// Breadth first search from every station along the edges usable with the subset's tickets (-1 for any edge)
+	private static byte[] compute(CompiledGraph graph, int tickets) {
+		int capacity = graph.capacity();
+		byte[] table = new byte[capacity * capacity];
+		Arrays.fill(table, (byte) UNREACHABLE_BYTE);
+		int[] queue = new int[capacity];
+		int[] distances = new int[capacity];
+		for (int source = 0; source < capacity; source++) {
+			if (!graph.contains(source)) continue;
+			Arrays.fill(distances, -1);
+			distances[source] = 0;
+			queue[0] = source;
+			for (int head = 0, tail = 1; head < tail; head++) {
+				int station = queue[head];
+				if (distances[station] >= UNREACHABLE_BYTE)
+					throw new IllegalArgumentException("Stations too far apart: " + source + " and " + station);
+				table[source * capacity + station] = (byte) distances[station];
+				for (int edge = graph.firstEdge(station); edge < graph.endEdge(station); edge++) {
+					int neighbour = graph.neighbour(edge);
+					if (distances[neighbour] >= 0 || (graph.tickets(edge) & tickets) == 0) continue;
+					distances[neighbour] = distances[station] + 1;
+					queue[tail++] = neighbour;
+				}
+			}
+		}
+		return table;
+	}
+}
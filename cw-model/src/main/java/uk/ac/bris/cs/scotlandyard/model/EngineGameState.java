@@ -0,0 +1,141 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.Iterators;
+
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongToIntFunction;
+import java.util.random.RandomGenerator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+
+/**
+ * A {@link GameState} that can also be driven with moves encoded by {@link MoveCodec}, for search
+ * code that shouldn't allocate a {@link Move} per move.
+ */
+public interface EngineGameState extends GameState {
+	/**
+	 * Appends the encoded form of every move in {@link #getAvailableMoves()} to the list
+	 *
+	 * @param moves the list to add the moves to
+	 */
+	void generateMoves(@Nonnull MoveList moves);
+
+	/**
+	 * Generates the moves of {@link #generateMoves(MoveList)}, in the same order, but only as they are
+	 * asked for: a search that prunes after the first few moves doesn't generate the rest.
+	 *
+	 * @return an iterator over the encoded available moves
+	 */
+	@Nonnull PrimitiveIterator.OfLong moveIterator();
+
+	/**
+	 * @return a spliterator over the encoded available moves, generated as in {@link #moveIterator()}
+	 */
+	@Nonnull default Spliterator.OfLong moveSpliterator() {
+		return Spliterators.spliteratorUnknownSize(moveIterator(),
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+	}
+
+	/**
+	 * @return an iterator over the moves of {@link #getAvailableMoves()}, decoding each one as it is
+	 * generated instead of building the whole set
+	 */
+	@Nonnull default Iterator<Move> availableMoveIterator() {
+		return Iterators.transform(moveIterator(), MoveCodec::decode);
+	}
+
+	/**
+	 * Picks one of the available moves, each with the same chance, without building the set of moves
+	 *
+	 * @param random the source of randomness
+	 * @return the encoded move, or {@link MoveCodec#NONE} if there are no moves (the game is over)
+	 */
+	long randomMove(@Nonnull RandomGenerator random);
+
+	/**
+	 * The encoded equivalent of {@link #advance(Move)}
+	 *
+	 * @param move the encoded move to make
+	 * @return the game state of which the given move has been made
+	 * @throws IllegalArgumentException if the move was not a move from {@link #generateMoves(MoveList)}
+	 */
+	@Nonnull EngineGameState advance(long move);
+
+	@Nonnull @Override EngineGameState advance(Move move);
+
+	/**
+	 * Makes a move without checking that it's one of the available moves, for search code that
+	 * generated the move itself. With assertions enabled ({@code -ea}) the move is still checked.
+	 * <br>
+	 * Making a move that isn't available gives a state that couldn't be reached in the game.
+	 *
+	 * @param move the encoded move to make, which must be from {@link #generateMoves(MoveList)}
+	 * @return the game state of which the given move has been made
+	 */
+	@Nonnull EngineGameState advanceTrusted(long move);
+
+	/**
+	 * The {@link Move} equivalent of {@link #advanceTrusted(long)}
+	 *
+	 * @param move the move to make, which must be from {@link #getAvailableMoves()}
+	 * @return the game state of which the given move has been made
+	 */
+	@Nonnull EngineGameState advanceTrusted(Move move);
+
+	/**
+	 * Generates the rounds of the detectives still to move, each one the moves to make with
+	 * {@link #advanceRound(long[])}
+	 *
+	 * @param score scores a detective's move, higher first, or null to keep the order of
+	 * {@link #generateMoves(MoveList)}
+	 * @param width the number of each detective's best moves to keep, {@link Integer#MAX_VALUE} for all
+	 * @return the rounds, none if it's Mr X's turn or the game is over
+	 */
+	@Nonnull default DetectiveRounds detectiveRounds(@Nullable LongToIntFunction score, int width) {
+		return DetectiveRounds.of(this, mrXLocation(), score, width);
+	}
+
+	/**
+	 * Makes every move of a detectives' round, in order, without checking them
+	 *
+	 * @param round the moves of a round from {@link #detectiveRounds(LongToIntFunction, int)}
+	 * @return the game state of which the round has been made
+	 */
+	@Nonnull default EngineGameState advanceRound(@Nonnull long[] round) {
+		EngineGameState state = this;
+		for (long move : round) state = state.advanceTrusted(move);
+		return state;
+	}
+
+	/**
+	 * @return the {@link Zobrist} key of the position: the players' locations and ticket counts,
+	 * the players still to move this round and the round. Equal states have equal keys.
+	 */
+	long zobristKey();
+
+	/**
+	 * @return the key of the state with the detectives relabelled in the canonical order of
+	 * {@link DetectiveSymmetry}, equal for states that only differ by which detective is which
+	 */
+	long canonicalKey();
+
+	/**
+	 * @return the station Mr X is standing on, which the {@link Board} methods only reveal through his
+	 * available moves
+	 */
+	int mrXLocation();
+
+	/**
+	 * @param piece a player
+	 * @return a mask with bit {@code ticket.ordinal()} set for every ticket in the player's ticket map
+	 * (the only ones they can be given, see {@link Player#give(ScotlandYard.Ticket)}), or 0 if the
+	 * piece isn't playing
+	 */
+	int presentTickets(@Nonnull Piece piece);
+}
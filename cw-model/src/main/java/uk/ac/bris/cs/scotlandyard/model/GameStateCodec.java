@@ -0,0 +1,249 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.TicketBoard;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * A compact binary format for the positions of one game setup, for saving large numbers of them.
+ * <br>
+ * The setup itself isn't written, only its {@link #fingerprint(GameSetup)}: a position can only be
+ * read back by a codec of the same setup, which is checked. A snapshot holds, in order:
+ * <ul>
+ *     <li>the magic number {@code "SYGS"} and the format {@link #VERSION}, one byte</li>
+ *     <li>the setup fingerprint, eight bytes</li>
+ *     <li>the number of players, one byte, then for each player (Mr X first) the piece, one byte,
+ *     the location, two bytes, the ticket counts packed into eight bytes, and a one byte mask of the
+ *     tickets in the player's ticket map (the only ones they can be given, see
+ *     {@link Player#give(Ticket)}). Boards other than {@link EngineGameState}s and
+ *     {@link SearchState}s don't tell which tickets are in the map, so all of them are written as
+ *     present</li>
+ *     <li>the players still to move this round, a one byte mask over the players</li>
+ *     <li>the length of Mr X's travel log, one byte, then for each entry the ticket, one byte, and in
+ *     the setup's reveal rounds the location, two bytes</li>
+ * </ul>
+ * A game with five detectives takes 88 bytes before Mr X's first move, and one more per round of
+ * his log (three in reveal rounds): 122 bytes at the end of a standard 24 move game. The players still to move are
+ * written as the ones with available moves (detectives who can't move are skipped), or just Mr X if
+ * nobody can move: once the game is over, the restored state is the same position with Mr X to move
+ * (and the same winner).
+ * <br>
+ * Snapshots of version 1, which didn't have the masks, are still read, with every ticket present.
+ * <br>
+ * Positions are read back as {@link MyGameStateFactory} states, which share the setup's compiled
+ * graph (see {@link SetupRegistry}), so reading one only costs building the players and the log.
+ */
+public final class GameStateCodec {
+	/**
+	 * The version of the format written by this class
+	 */
+	public static final int VERSION = 2;
+
+	private static final int MAGIC = 0x53594753;		// "SYGS"
+	private static final int MAX_PLAYERS = 8;			// The remaining players mask is one byte
+	private static final int ALL_TICKETS = (1 << Ticket.values().length) - 1;
+	private static final Ticket[] TICKETS = Ticket.values();
+	private static final Piece[] PIECES = new Piece[Detective.values().length + 1];
+
+	static {
+		for (int i = 0; i < PIECES.length; i++) PIECES[i] = MoveCodec.piece(i);
+	}
+
+	private final GameSetup setup;
+	private final CompiledGraph graph;
+	private final long fingerprint;
+	private final MyGameStateFactory factory = new MyGameStateFactory();
+
+	/**
+	 * @param setup the setup of the positions to write and read
+	 */
+	public GameStateCodec(@Nonnull GameSetup setup) {
+		this.setup = setup;
+		this.graph = SetupRegistry.graph(setup);
+		this.fingerprint = fingerprint(setup);
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @return a hash of the setup's graph (stations, edges and their transports) and reveal rounds,
+	 * which stays the same between runs and JVMs
+	 */
+	public static long fingerprint(@Nonnull GameSetup setup) { return SetupRegistry.fingerprint(setup); }
+
+	/**
+	 * @return the fingerprint of the codec's setup, written into every snapshot
+	 */
+	public long fingerprint() { return fingerprint; }
+
+	/**
+	 * @param board a position of the codec's setup: an {@link EngineGameState}, a {@link SearchState},
+	 * or any board on Mr X's turn
+	 * @return the snapshot of the position
+	 * @throws IllegalArgumentException if the board is of another setup, or Mr X's location isn't known
+	 */
+	@Nonnull public byte[] encode(@Nonnull Board board) { return encode(board, mrXLocation(board)); }
+
+	/**
+	 * @param board a position of the codec's setup
+	 * @param mrXLocation the station Mr X is standing on
+	 * @return the snapshot of the position
+	 * @throws IllegalArgumentException if the board is of another setup
+	 */
+	@Nonnull public byte[] encode(@Nonnull Board board, int mrXLocation) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+		try {
+			write(new DataOutputStream(bytes), board, mrXLocation);
+		} catch (IOException e) { throw new UncheckedIOException(e); }	// (never thrown by an in-memory stream)
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * @param bytes a snapshot written by a codec of the same setup
+	 * @return the position as a {@link MyGameStateFactory} state
+	 * @throws IllegalArgumentException if the snapshot is malformed, of another version or of another setup
+	 */
+	@Nonnull public EngineGameState decode(@Nonnull byte[] bytes) {
+		try {
+			return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+		} catch (EOFException e) {
+			throw new IllegalArgumentException("Truncated snapshot", e);
+		} catch (IOException e) { throw new UncheckedIOException(e); }
+	}
+
+	/**
+	 * Writes a snapshot of the position, see {@link #encode(Board, int)}
+	 *
+	 * @param out the output to write to
+	 * @param board a position of the codec's setup
+	 * @param mrXLocation the station Mr X is standing on
+	 * @throws IOException if the output fails
+	 */
+	public void write(@Nonnull DataOutput out, @Nonnull Board board, int mrXLocation) throws IOException {
+		if (board.getSetup() != setup && fingerprint(board.getSetup()) != fingerprint)
+			throw new IllegalArgumentException("Board is of another setup");
+
+		// Mr X first, then the detectives
+		List<Piece> pieces = new ArrayList<>(board.getPlayers().size());
+		for (Piece piece : board.getPlayers()) if (piece.isMrX()) pieces.add(piece);
+		for (Piece piece : board.getPlayers()) if (piece.isDetective()) pieces.add(piece);
+		if (pieces.isEmpty() || !pieces.get(0).isMrX()) throw new IllegalArgumentException("No Mr X!");
+		if (pieces.size() > MAX_PLAYERS) throw new IllegalArgumentException("Too many players: " + pieces.size());
+
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		out.writeLong(fingerprint);
+		out.writeByte(pieces.size());
+		for (Piece piece : pieces) {
+			int location = piece.isMrX() ? mrXLocation
+					: board.getDetectiveLocation((Detective) piece).orElseThrow();
+			TicketBoard tickets = board.getPlayerTickets(piece).orElseThrow();
+			EnumMap<Ticket, Integer> counts = new EnumMap<>(Ticket.class);
+			for (Ticket ticket : TICKETS) counts.put(ticket, tickets.getCount(ticket));
+			out.writeByte(MoveCodec.pieceIndex(piece));
+			out.writeShort(checkStation(location));
+			out.writeLong(PackedTickets.pack(counts));
+			out.writeByte(board instanceof EngineGameState ? ((EngineGameState) board).presentTickets(piece)
+					: board instanceof SearchState ? ((SearchState) board).presentTickets(piece) : ALL_TICKETS);
+		}
+
+		// The players still to move are the ones with available moves (decoding the moves isn't needed)
+		int remaining = 0;
+		if (board instanceof EngineGameState) {
+			MoveList moves = new MoveList();
+			((EngineGameState) board).generateMoves(moves);
+			for (int i = 0; i < moves.size(); i++) remaining |= 1 << pieces.indexOf(MoveCodec.piece(moves.get(i)));
+		} else {
+			for (Move move : board.getAvailableMoves()) remaining |= 1 << pieces.indexOf(move.commencedBy());
+		}
+		out.writeByte(remaining == 0 ? 1 : remaining);
+
+		ImmutableList<LogEntry> log = board.getMrXTravelLog();
+		out.writeByte(log.size());
+		for (int round = 0; round < log.size(); round++) {
+			LogEntry entry = log.get(round);
+			out.writeByte(entry.ticket().ordinal());
+			if (setup.moves.get(round)) out.writeShort(checkStation(entry.location().orElseThrow()));
+		}
+	}
+
+	/**
+	 * Reads a snapshot of a position, see {@link #decode(byte[])}
+	 *
+	 * @param in the input to read from
+	 * @return the position as a {@link MyGameStateFactory} state
+	 * @throws IOException if the input fails, or ends part way through the snapshot
+	 */
+	@Nonnull public EngineGameState read(@Nonnull DataInput in) throws IOException {
+		if (in.readInt() != MAGIC) throw new IllegalArgumentException("Not a game state snapshot");
+		int version = in.readUnsignedByte();
+		if (version != VERSION && version != 1) throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+		if (in.readLong() != fingerprint) throw new IllegalArgumentException("Snapshot is of another setup");
+
+		int players = in.readUnsignedByte();
+		if (players < 1 || players > MAX_PLAYERS) throw new IllegalArgumentException("Bad number of players: " + players);
+		Player mrX = null;
+		ImmutableList.Builder<Player> detectives = ImmutableList.builderWithExpectedSize(players - 1);
+		Piece[] pieces = new Piece[players];
+		for (int i = 0; i < players; i++) {
+			int index = in.readUnsignedByte();
+			if (index >= PIECES.length) throw new IllegalArgumentException("Bad piece: " + index);
+			pieces[i] = PIECES[index];
+			int location = in.readUnsignedShort();
+			long tickets = in.readLong();
+			int present = version == 1 ? ALL_TICKETS : in.readUnsignedByte();
+			if ((present & ~ALL_TICKETS) != 0) throw new IllegalArgumentException("Bad ticket mask: " + present);
+			Player player = new Player(pieces[i], PackedTickets.unpack(tickets, present), location);
+			if (i == 0) mrX = player;
+			else detectives.add(player);
+		}
+
+		int mask = in.readUnsignedByte();
+		ImmutableSet.Builder<Piece> remaining = ImmutableSet.builder();
+		for (int i = 0; i < players; i++) if ((mask & (1 << i)) != 0) remaining.add(pieces[i]);
+		if (mask >>> players != 0) throw new IllegalArgumentException("Bad remaining players: " + mask);
+
+		int rounds = in.readUnsignedByte();
+		if (rounds > setup.moves.size()) throw new IllegalArgumentException("Log is longer than the game: " + rounds);
+		List<LogEntry> log = new ArrayList<>(rounds);
+		for (int round = 0; round < rounds; round++) {
+			int ticket = in.readUnsignedByte();
+			if (ticket >= TICKETS.length) throw new IllegalArgumentException("Bad ticket: " + ticket);
+			log.add(setup.moves.get(round) ? LogEntry.reveal(TICKETS[ticket], in.readUnsignedShort())
+					: LogEntry.hidden(TICKETS[ticket]));
+		}
+		return factory.restore(setup, graph, mrX, detectives.build(), remaining.build(), log);
+	}
+
+	// Takes Mr X's location from the board if it knows it, otherwise from his available moves
+	private static int mrXLocation(Board board) {
+		if (board instanceof EngineGameState) return ((EngineGameState) board).mrXLocation();
+		if (board instanceof SearchState) return ((SearchState) board).mrXLocation();
+		for (Move move : board.getAvailableMoves()) {
+			if (move.commencedBy().isMrX()) return move.source();
+		}
+		throw new IllegalArgumentException("Mr X's location is only known from his available moves");
+	}
+
+	private static int checkStation(int station) {
+		if (station < 0 || station > 0xFFFF) throw new IllegalArgumentException("Station out of range: " + station);
+		return station;
+	}
+}
@@ -0,0 +1,187 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.Move.FunctionalVisitor;
+import uk.ac.bris.cs.scotlandyard.model.Move.SingleMove;
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Packs a {@link Move} into a single {@code long}, so search code can generate and store moves
+ * without allocating.
+ * <br>
+ * Bits {@code 0-15} hold the source, {@code 16-31} the (first) destination, {@code 32-47} the
+ * second destination, {@code 48-50} and {@code 51-53} the ordinals of the first and second ticket,
+ * {@code 54-56} the piece (see {@link #pieceIndex(Piece)}) and bit {@code 57} is set for double
+ * moves. The unused fields of a single move are zero, so equal moves always have equal encodings.
+ */
+public final class MoveCodec {
+	/**
+	 * Never the encoding of a move, for use as a "no move" marker
+	 */
+	public static final long NONE = -1L;
+
+	private static final int STATION_BITS = 16;
+	private static final int MAX_STATION = (1 << STATION_BITS) - 1;
+	private static final int DESTINATION1 = 16;
+	private static final int DESTINATION2 = 32;
+	private static final int TICKET1 = 48;
+	private static final int TICKET2 = 51;
+	private static final int PIECE = 54;
+	private static final long DOUBLE = 1L << 57;
+
+	private static final Ticket[] TICKETS = Ticket.values();
+	// Piece index -> piece, Mr X first and then the detectives in declaration order
+	private static final Piece[] PIECES = {MrX.MRX, Detective.RED, Detective.GREEN,
+			Detective.BLUE, Detective.WHITE, Detective.YELLOW};
+
+	private MoveCodec() {}
+
+	/**
+	 * @param piece the piece
+	 * @return the index the piece is encoded as: {@code 0} for Mr X, and one more than the
+	 * {@link Detective} ordinal for detectives
+	 */
+	public static int pieceIndex(@Nonnull Piece piece) {
+		if (piece instanceof MrX) return 0;
+		if (piece instanceof Detective) return ((Detective) piece).ordinal() + 1;
+		throw new IllegalArgumentException("Unknown piece: " + piece);
+	}
+
+	/**
+	 * @param index the piece index, see {@link #pieceIndex(Piece)}
+	 * @return the piece with that index
+	 */
+	@Nonnull public static Piece piece(int index) { return PIECES[index]; }
+
+	/**
+	 * @param piece the piece moving
+	 * @param source the station the piece is moving from
+	 * @param ticket the ticket used
+	 * @param destination the station the piece is moving to
+	 * @return the encoded single move
+	 * @throws IllegalArgumentException if a station doesn't fit in the encoding
+	 */
+	public static long single(@Nonnull Piece piece, int source, @Nonnull Ticket ticket, int destination) {
+		return (long) pieceIndex(piece) << PIECE
+				| (long) ticket.ordinal() << TICKET1
+				| (long) checkStation(destination) << DESTINATION1
+				| checkStation(source);
+	}
+
+	/**
+	 * @param piece the piece moving
+	 * @param source the station the piece is moving from
+	 * @param ticket1 the ticket used for the first move
+	 * @param destination1 the station the first move ends at
+	 * @param ticket2 the ticket used for the second move
+	 * @param destination2 the station the second move ends at
+	 * @return the encoded double move
+	 * @throws IllegalArgumentException if a station doesn't fit in the encoding
+	 */
+	public static long doubleMove(@Nonnull Piece piece, int source,
+	                              @Nonnull Ticket ticket1, int destination1,
+	                              @Nonnull Ticket ticket2, int destination2) {
+		return single(piece, source, ticket1, destination1)
+				| (long) ticket2.ordinal() << TICKET2
+				| (long) checkStation(destination2) << DESTINATION2
+				| DOUBLE;
+	}
+
+	/**
+	 * @param first the encoded single move made first
+	 * @param second the encoded single move made from the destination of {@code first}
+	 * @return the encoded double move making both moves
+	 */
+	public static long doubleMove(long first, long second) {
+		return first
+				| (long) ticketOrdinal(second, TICKET1) << TICKET2
+				| (long) destination1(second) << DESTINATION2
+				| DOUBLE;
+	}
+
+	/**
+	 * @param move the move
+	 * @return the encoded move
+	 * @throws IllegalArgumentException if a station doesn't fit in the encoding
+	 */
+	public static long encode(@Nonnull Move move) {
+		return move.accept(new FunctionalVisitor<>(
+				m -> single(m.commencedBy(), m.source(), m.ticket, m.destination),
+				m -> doubleMove(m.commencedBy(), m.source(), m.ticket1, m.destination1, m.ticket2, m.destination2)));
+	}
+
+	/**
+	 * @param move the encoded move
+	 * @return the move as a {@link SingleMove} or {@link DoubleMove}
+	 */
+	@Nonnull public static Move decode(long move) {
+		if (isDouble(move)) return new DoubleMove(piece(move), source(move),
+				ticket1(move), destination1(move), ticket2(move), destination2(move));
+		return new SingleMove(piece(move), source(move), ticket1(move), destination1(move));
+	}
+
+	/**
+	 * @param move the encoded move
+	 * @return whether the move is a double move
+	 */
+	public static boolean isDouble(long move) { return (move & DOUBLE) != 0; }
+	/**
+	 * @param move the encoded move
+	 * @return the index of the piece making the move, see {@link #pieceIndex(Piece)}
+	 */
+	public static int pieceIndex(long move) { return (int) (move >>> PIECE) & 7; }
+	/**
+	 * @param move the encoded move
+	 * @return the piece making the move
+	 */
+	@Nonnull public static Piece piece(long move) { return PIECES[pieceIndex(move)]; }
+	/**
+	 * @param move the encoded move
+	 * @return the station the move starts at
+	 */
+	public static int source(long move) { return (int) move & MAX_STATION; }
+	/**
+	 * @param move the encoded move
+	 * @return the ticket used for the (first) move
+	 */
+	@Nonnull public static Ticket ticket1(long move) { return TICKETS[ticketOrdinal(move, TICKET1)]; }
+	/**
+	 * @param move the encoded move
+	 * @return the station the (first) move ends at
+	 */
+	public static int destination1(long move) { return (int) (move >>> DESTINATION1) & MAX_STATION; }
+	/**
+	 * @param move the encoded double move
+	 * @return the ticket used for the second move
+	 */
+	@Nonnull public static Ticket ticket2(long move) { return TICKETS[ticketOrdinal(move, TICKET2)]; }
+	/**
+	 * @param move the encoded double move
+	 * @return the station the second move ends at
+	 */
+	public static int destination2(long move) { return (int) (move >>> DESTINATION2) & MAX_STATION; }
+	/**
+	 * @param move the encoded move
+	 * @return the station the piece ends up at once the whole move is made
+	 */
+	public static int destination(long move) { return isDouble(move) ? destination2(move) : destination1(move); }
+
+	/**
+	 * @param move the encoded move
+	 * @return a readable form of the move, the same as the decoded move's
+	 */
+	@Nonnull public static String toString(long move) {
+		return move == NONE ? "NONE" : decode(move).toString();
+	}
+
+	private static int ticketOrdinal(long move, int shift) { return (int) (move >>> shift) & 7; }
+
+	private static int checkStation(int station) {
+		if (station < 0 || station > MAX_STATION) throw new IllegalArgumentException("Station out of range: " + station);
+		return station;
+	}
+}
@@ -0,0 +1,222 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Generates the moves of some players one at a time, encoded with {@link MoveCodec}.
+ * <br>
+ * Walks the players' edges (and Mr X's two-hop paths) only as far as the caller asks for moves, so
+ * a search that prunes after the first few moves, or a playout that wants a single one, doesn't pay
+ * for the rest. The moves come out in the same order as a game state's
+ * {@link EngineGameState#generateMoves(MoveList)}: each player's single moves by edge then ticket,
+ * followed by Mr X's double moves by path then tickets.
+ */
+final class MoveIterator implements PrimitiveIterator.OfLong {
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	private final CompiledGraph graph;
+	private final Occupancy occupancy;
+	private final Player[] players;
+	private final boolean doubles;						// Whether the last player (Mr X) can make double moves
+
+	private int player = -1;							// The player whose moves are being generated
+	private int source;
+	private int available;								// Tickets the player has at least one of
+	private int plenty;									// Tickets the player has at least two of
+	private int secret;									// The secret ticket's bit for Mr X, as he can use it on any edge
+	private boolean doubleStage;						// Whether the singles are done and the doubles have started
+	private int cursor, end;							// The current edge (or path), and the end of the player's edges (or paths)
+	private int tickets;								// Tickets of the current edge (or for the first hop) left to yield
+	private Ticket first;								// The ticket of the first hop of the current double move
+	private int secondTickets;							// Tickets for the second hop left to yield
+	private long next;
+
+	/**
+	 * @param graph the graph of the game
+	 * @param occupancy the stations the detectives are standing on
+	 * @param players the players to generate moves for, in order
+	 * @param doubles whether to generate double moves for the last player, who must be Mr X
+	 */
+	MoveIterator(@Nonnull CompiledGraph graph, @Nonnull Occupancy occupancy, @Nonnull Player[] players, boolean doubles) {
+		this.graph = graph;
+		this.occupancy = occupancy;
+		this.players = players;
+		this.doubles = doubles;
+		this.next = players.length > 0 && nextPlayer() ? findNext() : MoveCodec.NONE;
+	}
+
+	/**
+	 * @param graph the graph of the game
+	 * @param occupancy the stations the detectives are standing on
+	 * @param players the players to count the moves of
+	 * @param doubles whether to count double moves for the last player, who must be Mr X
+	 * @return the number of moves an iterator over the same players would yield, counted from the
+	 * ticket masks of each edge and path without generating the moves
+	 */
+	static int count(@Nonnull CompiledGraph graph, @Nonnull Occupancy occupancy, @Nonnull Player[] players, boolean doubles) {
+		int count = 0;
+		for (int i = 0; i < players.length; i++) {
+			Player player = players[i];
+			int source = player.location(), available = available(player), secret = secret(player);
+			for (int edge = graph.firstEdge(source); edge < graph.endEdge(source); edge++) {
+				if (!occupancy.contains(graph.neighbour(edge)))
+					count += Integer.bitCount((graph.tickets(edge) | secret) & available);
+			}
+			if (!doubles || i < players.length - 1) continue;
+			int plenty = plenty(player);
+			for (int path = graph.firstPath(source); path < graph.endPath(source); path++) {
+				int firstTickets = firstTickets(graph, occupancy, path, available, secret);
+				int secondTickets = (graph.tickets(graph.pathSecondEdge(path)) | secret) & available;
+				// Every pair of tickets, less those using the same type twice with only one of it
+				count += Integer.bitCount(firstTickets) * Integer.bitCount(secondTickets)
+						- Integer.bitCount(firstTickets & secondTickets & ~plenty);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @param graph the graph of the game
+	 * @param occupancy the stations the detectives are standing on
+	 * @param players the players to generate the move of
+	 * @param doubles whether to generate double moves for the last player, who must be Mr X
+	 * @param index the index of the move, less than {@link #count(CompiledGraph, Occupancy, Player[], boolean)}
+	 * @return the move an iterator over the same players would yield at the index, found by skipping
+	 * whole edges and paths by their ticket counts, or {@link MoveCodec#NONE} if there are fewer moves
+	 */
+	static long moveAt(@Nonnull CompiledGraph graph, @Nonnull Occupancy occupancy, @Nonnull Player[] players,
+	                   boolean doubles, int index) {
+		if (index < 0) return MoveCodec.NONE;
+		for (int i = 0; i < players.length; i++) {
+			Player player = players[i];
+			int source = player.location(), available = available(player), secret = secret(player);
+			for (int edge = graph.firstEdge(source); edge < graph.endEdge(source); edge++) {
+				int destination = graph.neighbour(edge);
+				if (occupancy.contains(destination)) continue;
+				int tickets = (graph.tickets(edge) | secret) & available;
+				if (index < Integer.bitCount(tickets))
+					return MoveCodec.single(player.piece(), source, TICKETS[nthBit(tickets, index)], destination);
+				index -= Integer.bitCount(tickets);
+			}
+			if (!doubles || i < players.length - 1) continue;
+			int plenty = plenty(player);
+			for (int path = graph.firstPath(source); path < graph.endPath(source); path++) {
+				int firstTickets = firstTickets(graph, occupancy, path, available, secret);
+				int secondEdge = graph.pathSecondEdge(path);
+				for (; firstTickets != 0; firstTickets &= firstTickets - 1) {
+					int firstBit = firstTickets & -firstTickets;
+					int secondTickets = (graph.tickets(secondEdge) | secret) & available & ~(firstBit & ~plenty);
+					if (index < Integer.bitCount(secondTickets)) {
+						return MoveCodec.doubleMove(player.piece(), source,
+								TICKETS[Integer.numberOfTrailingZeros(firstBit)], graph.neighbour(graph.pathFirstEdge(path)),
+								TICKETS[nthBit(secondTickets, index)], graph.neighbour(secondEdge));
+					}
+					index -= Integer.bitCount(secondTickets);
+				}
+			}
+		}
+		return MoveCodec.NONE;
+	}
+
+	@Override public boolean hasNext() { return next != MoveCodec.NONE; }
+
+	@Override public long nextLong() {
+		if (next == MoveCodec.NONE) throw new NoSuchElementException();
+		long move = next;
+		next = findNext();
+		return move;
+	}
+
+	// Moves on to the single moves of the next player, returning false if there isn't one
+	private boolean nextPlayer() {
+		if (++player == players.length) return false;
+		Player current = players[player];
+		source = current.location();
+		available = available(current);
+		plenty = plenty(current);
+		secret = secret(current);
+		cursor = graph.firstEdge(source) - 1;
+		end = graph.endEdge(source);
+		tickets = 0;
+		return true;
+	}
+
+	// Finds the move after the last one yielded, or NONE once every player's moves are done
+	private long findNext() {
+		while (true) {
+			if (!doubleStage) {
+				if (tickets != 0) {
+					Ticket ticket = TICKETS[Integer.numberOfTrailingZeros(tickets)];
+					tickets &= tickets - 1;
+					return MoveCodec.single(players[player].piece(), source, ticket, graph.neighbour(cursor));
+				}
+				if (++cursor < end) {
+					tickets = occupancy.contains(graph.neighbour(cursor)) ? 0
+							: (graph.tickets(cursor) | secret) & available;
+				} else if (doubles && player == players.length - 1) {
+					doubleStage = true;
+					cursor = graph.firstPath(source) - 1;
+					end = graph.endPath(source);
+				} else if (!nextPlayer()) return MoveCodec.NONE;
+			} else {
+				if (secondTickets != 0) {
+					Ticket second = TICKETS[Integer.numberOfTrailingZeros(secondTickets)];
+					secondTickets &= secondTickets - 1;
+					return MoveCodec.doubleMove(players[player].piece(), source,
+							first, graph.neighbour(graph.pathFirstEdge(cursor)),
+							second, graph.neighbour(graph.pathSecondEdge(cursor)));
+				}
+				if (tickets != 0) {
+					// The second hop can only use the same type of ticket as the first if there were two
+					int firstBit = tickets & -tickets;
+					first = TICKETS[Integer.numberOfTrailingZeros(firstBit)];
+					tickets &= tickets - 1;
+					secondTickets = (graph.tickets(graph.pathSecondEdge(cursor)) | secret)
+							& available & ~(firstBit & ~plenty);
+				} else if (++cursor < end) {
+					tickets = firstTickets(graph, occupancy, cursor, available, secret);
+				} else return MoveCodec.NONE;
+			}
+		}
+	}
+
+	// Tickets the player has at least one of
+	private static int available(Player player) {
+		int available = 0;
+		for (Ticket ticket : TICKETS) {
+			if (player.has(ticket)) available |= CompiledGraph.bit(ticket);
+		}
+		return available;
+	}
+
+	// Tickets the player has at least two of
+	private static int plenty(Player player) {
+		int plenty = 0;
+		for (Ticket ticket : TICKETS) {
+			if (player.hasAtLeast(ticket, 2)) plenty |= CompiledGraph.bit(ticket);
+		}
+		return plenty;
+	}
+
+	// The secret ticket's bit for Mr X, as he can use it on any edge
+	private static int secret(Player player) { return player.isMrX() ? CompiledGraph.bit(Ticket.SECRET) : 0; }
+
+	// Tickets for the first hop of the path, none if a detective stands on either station it leads to
+	private static int firstTickets(CompiledGraph graph, Occupancy occupancy, int path, int available, int secret) {
+		int firstEdge = graph.pathFirstEdge(path);
+		boolean blocked = occupancy.contains(graph.neighbour(firstEdge))
+				|| occupancy.contains(graph.neighbour(graph.pathSecondEdge(path)));
+		return blocked ? 0 : (graph.tickets(firstEdge) | secret) & available;
+	}
+
+	// The index of the n-th lowest set bit of the mask, which must have more than n
+	private static int nthBit(int mask, int n) {
+		for (; n > 0; n--) mask &= mask - 1;
+		return Integer.numberOfTrailingZeros(mask);
+	}
+}
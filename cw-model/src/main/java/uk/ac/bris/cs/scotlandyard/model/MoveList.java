@@ -0,0 +1,109 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A growable buffer of moves encoded with {@link MoveCodec}.
+ * <br>
+ * Meant to be reused: a search can keep one list for the whole tree, remember {@link #size()}
+ * before generating the moves of a node and {@link #truncate(int)} back to it afterwards, so
+ * the backing array is only ever allocated while it grows.
+ */
+public final class MoveList {
+	private long[] moves;
+	private int size;
+
+	public MoveList() { this(64); }
+
+	/**
+	 * @param capacity the number of moves to make room for up front
+	 */
+	public MoveList(int capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("Negative capacity: " + capacity);
+		this.moves = new long[capacity];
+	}
+
+	/**
+	 * @param move the encoded move to add to the end of the list
+	 */
+	public void add(long move) {
+		if (size == moves.length) moves = Arrays.copyOf(moves, Math.max(16, size * 2));
+		moves[size++] = move;
+	}
+
+	/**
+	 * @param index the index, less than {@link #size()}
+	 * @return the encoded move at the index
+	 */
+	public long get(int index) {
+		if (index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+		return moves[index];
+	}
+
+	/**
+	 * @param index the index, less than {@link #size()}
+	 * @param move the encoded move to replace the move at the index with
+	 */
+	public void set(int index, long move) {
+		if (index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+		moves[index] = move;
+	}
+
+	/**
+	 * @return the number of moves in the list
+	 */
+	public int size() { return size; }
+
+	/**
+	 * @return whether the list has no moves
+	 */
+	public boolean isEmpty() { return size == 0; }
+
+	/**
+	 * Removes every move, keeping the backing array
+	 */
+	public void clear() { size = 0; }
+
+	/**
+	 * @param size the number of moves to keep, at most {@link #size()}
+	 */
+	public void truncate(int size) {
+		if (size < 0 || size > this.size) throw new IndexOutOfBoundsException("Cannot truncate " + this.size + " moves to " + size);
+		this.size = size;
+	}
+
+	/**
+	 * @param move the encoded move
+	 * @return whether the list contains the move
+	 */
+	public boolean contains(long move) {
+		for (int i = 0; i < size; i++) {
+			if (moves[i] == move) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return a copy of the moves in the list
+	 */
+	@Nonnull public long[] toArray() { return Arrays.copyOf(moves, size); }
+
+	/**
+	 * @return the moves in the list decoded into {@link Move}s, in the same order
+	 */
+	@Nonnull public ImmutableList<Move> toMoves() {
+		ImmutableList.Builder<Move> builder = ImmutableList.builderWithExpectedSize(size);
+		for (int i = 0; i < size; i++) builder.add(MoveCodec.decode(moves[i]));
+		return builder.build();
+	}
+
+	@Override public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		for (int i = 0; i < size; i++) builder.append(i > 0 ? ", " : "").append(MoveCodec.toString(moves[i]));
+		return builder.append(']').toString();
+	}
+}
@@ -11,6 +11,7 @@ import uk.ac.bris.cs.scotlandyard.model.Piece.*;
 import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
 
 import java.util.*;
+import java.util.random.RandomGenerator;
 
 /**
  * cw-model
@@ -19,44 +20,142 @@ import java.util.*;
 public final class MyGameStateFactory implements Factory<GameState> {
 
 	@Nonnull @Override
-	public GameState build(GameSetup setup, Player mrX, ImmutableList<Player> detectives) {
-		return new MyGameState(setup, mrX, detectives, ImmutableSet.of(MrX.MRX), ImmutableList.of());
+	public EngineGameState build(GameSetup setup, Player mrX, ImmutableList<Player> detectives) {
+		// Only the initial state needs checking, every state reached through advance() is valid by construction
+		MyGameState.testInitialisation(setup, mrX, detectives);
+		Occupancy occupancy = Occupancy.of(detectives.stream().mapToInt(Player::location).toArray());
+		// The whole key is only computed here (and in restore()), advance() updates it with the features each move changes
+		long key = Zobrist.player(mrX) ^ Zobrist.remaining(MrX.MRX) ^ Zobrist.round(0);
+		for (Player detective : detectives) key ^= Zobrist.player(detective);
+		Game game = new Game(setup, SetupRegistry.graph(setup), mrX, detectives);
+		return new MyGameState(game, mrX, detectives, occupancy, movable(game.graph, occupancy, detectives),
+				game.mrX, TravelLog.empty(), key);
 	}
 
-	private final class MyGameState implements GameState {
+	/**
+	 * Builds a state part way through a game, such as one saved by {@link GameStateCodec}
+	 *
+	 * @param setup the game setup
+	 * @param graph the compiled graph of the setup, which can be shared by any number of states
+	 * @param mrX Mr X
+	 * @param detectives the detectives
+	 * @param remaining the players still to move this round: just Mr X, or some of the detectives
+	 * @param log Mr X's travel log, revealing his location in the setup's reveal rounds
+	 * @return the state
+	 * @throws IllegalArgumentException if the players, remaining players or log don't make a position of the setup
+	 */
+	@Nonnull EngineGameState restore(GameSetup setup, CompiledGraph graph, Player mrX, ImmutableList<Player> detectives,
+	                                 ImmutableSet<Piece> remaining, List<LogEntry> log) {
+		MyGameState.testInitialisation(setup, mrX, detectives);
+		Game game = new Game(setup, graph, mrX, detectives);
+
+		// Either Mr X is to move, or some detectives are
+		if (remaining.isEmpty() || !game.players.containsAll(remaining)
+				|| (remaining.contains(mrX.piece()) && remaining.size() > 1))
+			throw new IllegalArgumentException("Not the remaining players of the game: " + remaining);
+		// Every round of the log has to be hidden or revealed as the setup says
+		if (log.size() > setup.moves.size()) throw new IllegalArgumentException("Log is longer than the game!");
+		TravelLog travelLog = TravelLog.empty();
+		for (int round = 0; round < log.size(); round++) {
+			LogEntry entry = log.get(round);
+			if (entry.location().isPresent() != setup.moves.get(round))
+				throw new IllegalArgumentException("Log entry doesn't match the setup's reveal rounds: " + entry);
+			travelLog = travelLog.append(entry);
+		}
+
+		ImmutableSet<Piece> remainingSet = remaining.equals(game.mrX) ? game.mrX : remaining;
+		long key = Zobrist.player(mrX) ^ Zobrist.remaining(remainingSet) ^ Zobrist.round(log.size());
+		for (Player detective : detectives) key ^= Zobrist.player(detective);
+		Occupancy occupancy = Occupancy.of(detectives.stream().mapToInt(Player::location).toArray());
+		return new MyGameState(game, mrX, detectives, occupancy, movable(game.graph, occupancy, detectives),
+				remainingSet, travelLog, key);
+	}
+
+	// Bitmask of the detectives (by index in the list) who have at least one single move (used in: build(), restore())
+	private static int movable(CompiledGraph graph, Occupancy occupancy, List<Player> detectives) {
+		int movable = 0;
+		for (int i = 0; i < detectives.size(); i++) {
+			if (MyGameState.canMove(graph, occupancy, detectives.get(i))) movable |= 1 << i;
+		}
+		return movable;
+	}
+
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	// Everything that stays the same for every state of one game, built once by build() and shared by all of them
+	private static final class Game {
 		private final GameSetup setup;						// The game setup - lets us access the graph + Mr X's reveal moves
+		private final CompiledGraph graph;					// Array view of setup.graph
+		private final ImmutableSet<Piece> players;			// Mr X and the detectives (used in: getPlayers())
+		private final ImmutableSet<Piece> detectives;		// The detectives, who win together (used in: getWinner())
+		private final ImmutableSet<Piece> mrX;				// Just Mr X, who is the only one remaining at the start of a round
+		private final int[] indices;						// MoveCodec piece index -> index in the detectives list, or -1
+
+		private Game(GameSetup setup, CompiledGraph graph, Player mrX, List<Player> detectives) {
+			this.setup = setup;
+			this.graph = graph;
+			ImmutableSet.Builder<Piece> detectivePieces = ImmutableSet.builder();
+			this.indices = new int[Detective.values().length + 1];
+			Arrays.fill(indices, -1);
+			for (int i = 0; i < detectives.size(); i++) {
+				detectivePieces.add(detectives.get(i).piece());
+				// (a piece listed twice is found at its first index, as a linear search would find it)
+				int piece = MoveCodec.pieceIndex(detectives.get(i).piece());
+				if (indices[piece] < 0) indices[piece] = i;
+			}
+			this.detectives = detectivePieces.build();
+			this.players = ImmutableSet.<Piece>builder().add(mrX.piece()).addAll(this.detectives).build();
+			this.mrX = ImmutableSet.of(mrX.piece());
+		}
+
+		// Returns the index of the piece in the detectives list, or -1 if it isn't a detective in this game
+		private int indexOf(Piece piece) {
+			return piece == null ? -1 : indices[MoveCodec.pieceIndex(piece)];
+		}
+	}
+
+	private final class MyGameState implements EngineGameState {
+		private final Game game;							// The setup, compiled graph and piece sets, shared by the whole game
 		private final Player mrX;							// Holds Mr X
 		private final List<Player> detectives;				// Holds the detectives
-		private final ImmutableList<LogEntry> log;			// Log of Mr X's moves and the ticket used (bus, taxi etc.)
+		private final Occupancy occupancy;					// Stations the detectives are standing on
+		private final int movable;							// Bit i is set if detectives.get(i) has a move, kept up to date by advance()
+		private final TravelLog log;						// Log of Mr X's moves and the ticket used (bus, taxi etc.), shared with the parent states
 		private final ImmutableSet<Piece> remaining;		// Pieces that can still move this round
-		private final ImmutableSet<Move> moves;				// Holds the currently possible/available moves
-		private final ImmutableSet<Piece> winners;			// Holds the winner/s
+		private final long key;								// Zobrist key of the position, see Zobrist
+		// These are computed on first request and then remembered (threads racing to compute them
+		// will compute the same immutable value, so no locking is needed). Guava's immutable collections are
+		// safe to read from any thread however they were handed over, but a plain array isn't, so the
+		// encoded moves are volatile - otherwise another thread could see the array before its contents
+		private volatile long[] moves;						// Holds the moves of the remaining players, encoded by MoveCodec
+		private ImmutableSet<Move> moveSet;					// Holds the decoded available moves
+		private ImmutableSet<Piece> winners;				// Holds the winner/s
 
 
 		private MyGameState(
-				final GameSetup setup,
+				final Game game,
 				final Player mrX,
 				final List<Player> detectives,
+				final Occupancy occupancy,
+				final int movable,
 				final ImmutableSet<Piece> remaining,
-				final ImmutableList<LogEntry> log) throws IllegalArgumentException, NullPointerException {
+				final TravelLog log,
+				final long key) {
 
-			// First, initialize all values
-			this.setup = setup;
+			// Only initialize the values, the winner and the moves are not needed until someone asks for them
+			this.game = game;
 			this.mrX = mrX;
 			this.detectives = detectives;
+			this.occupancy = occupancy;
+			this.movable = movable;
 			this.remaining = remaining;
 			this.log = log;
-			// winner MUST be initialized before moves
-			winners = getWinner();
-			moves = getAvailableMoves();
-
-			// Then, check them all for validity, in line with the tests
-			testInitialisation(this.setup, this.mrX, this.detectives);
+			this.key = key;
 		}
 
 
-		// -------- Separate method for testing variables (to keep the constructor cleaner) --------
-		private void testInitialisation(final GameSetup setup,
+		// -------- Separate method for testing variables (called by build(), to keep the constructor cheap) --------
+		private static void testInitialisation(final GameSetup setup,
 								   final Player mrX,
 								   final List<Player> detectives) throws IllegalArgumentException, NullPointerException {
 
@@ -88,6 +187,12 @@ public final class MyGameStateFactory implements Factory<GameState> {
 				// graph setup
 				if (setup.graph.nodes().isEmpty()) throw new IllegalArgumentException("Graph is empty!");
 			}
+
+			// every player must stand on a station (this used to surface from the eager move generation)
+			if (!setup.graph.nodes().contains(mrX.location())) throw new IllegalArgumentException("Mr X is not on the graph!");
+			for (Player detective : detectives) {
+				if (!setup.graph.nodes().contains(detective.location())) throw new IllegalArgumentException("A detective is not on the graph!");
+			}
 		}
 		// ------------------------------
 
@@ -95,295 +200,367 @@ public final class MyGameStateFactory implements Factory<GameState> {
 		// --------------- Accessors/Getters ---------------
 		@Override @Nonnull
 		public GameSetup getSetup() {
-			return setup;
+			return game.setup;
 		}
 
 		@Override @Nonnull
 		public ImmutableSet<Piece> getPlayers() {
-			// build a new ImmutableSet using a builder
-			ImmutableSet.Builder<Piece> builder = ImmutableSet.builder();
-			// add mrX into the ImmutableSet
-			builder.add(mrX.piece());
-			// iterate over detectives to add to the ImmutableSet using forEach()
-			detectives.forEach(detective -> builder.add(detective.piece()));
-
-			// create a new ImmutableSet and return it straight away as the players set
-			return builder.build();
+			// The pieces never change during a game, so the set is built once for all states
+			return game.players;
 		}
 
 		@Override @Nonnull
 		public Optional<Integer> getDetectiveLocation(Detective detective) {
-			// If Detective.piece == detective, return location in an Optional.of();
-			for (Player player : detectives) {
-				if (player.piece().equals(detective)) return Optional.of(player.location());
-			}
+			// Look the detective up by its index, if it's playing return its location in an Optional.of();
+			int index = game.indexOf(detective);
+			if (index >= 0) return Optional.of(detectives.get(index).location());
 			// otherwise, return Optional.empty();
 			return Optional.empty();
 		}
 
 		@Override @Nonnull
 		public Optional<TicketBoard> getPlayerTickets(Piece piece) {
-			// detectives
-			for (Player detective : detectives) {
-				if (detective.piece().equals(piece)) {
-					// for the matching player, implement TicketBoard using a lambda expression
-					// NOTE: This works because TicketBoard has a SINGLE unimplemented method (known as a functional interface!)
-					return Optional.of(ticket -> {
-                        // get count of the ticket type from ImmutableMap<Ticket, Integer>> tickets, passing ticket as key
-                        return detective.tickets().getOrDefault(ticket, 0);
-                    });
-				}
-			}
-
-			// mrX
-			if (mrX.piece().equals(piece)) {
-				return Optional.of(ticket -> mrX.tickets().getOrDefault(ticket, 0));
-			}
-
+			// The matching player's TicketBoard, which the player keeps so it's shared by every state the
+			// player appears in unchanged (a player who didn't move this round keeps the same board)
+			Player player = getPlayer(piece);
 			// if no match is made, return empty
-			return Optional.empty();
+			return player == null ? Optional.empty() : player.ticketBoard();
 		}
 
 		@Override @Nonnull
 		public ImmutableList<LogEntry> getMrXTravelLog() {
-			return log;
+			return log.asList();
+		}
+
+		@Override
+		public long zobristKey() {
+			return key;
+		}
+
+		@Override
+		public long canonicalKey() {
+			return DetectiveSymmetry.canonicalKey(this, key, remaining);
+		}
+
+		@Override
+		public int mrXLocation() {
+			return mrX.location();
+		}
+
+		@Override
+		public int presentTickets(@Nonnull Piece piece) {
+			if (mrX.piece() == piece) return mrX.presentTickets();
+			for (Player detective : detectives) {
+				if (detective.piece() == piece) return detective.presentTickets();
+			}
+			return 0;
 		}
 
 		@Override @Nonnull
 		public ImmutableSet<Piece> getWinner() {
 			// If the winner has already been calculated, avoid recalculating
-			if (winners != null && !winners.isEmpty()) return winners;
+			if (winners == null) winners = computeWinner();
+			return winners;
+		}
 
-			// After every move, check whether a detective has captured Mr. X
-			for (Player detective : detectives) {
-				if (detective.location() == mrX.location()) return getDetectivesSet();
+		@Override @Nonnull
+		public ImmutableSet<Move> getAvailableMoves() {
+			// Once there is a winner, nobody can move
+			if (!getWinner().isEmpty()) return ImmutableSet.of();
+
+			// Otherwise decode the generated moves into Move objects, but only once someone asks for them
+			if (moveSet == null) {
+				long[] encoded = getRemainingMoves();
+				ImmutableSet.Builder<Move> builder = ImmutableSet.builderWithExpectedSize(encoded.length);
+				for (long move : encoded) builder.add(MoveCodec.decode(move));
+				moveSet = builder.build();
+			}
+			return moveSet;
+		}
+
+		@Override
+		public void generateMoves(@Nonnull MoveList moveList) {
+			// The same moves as getAvailableMoves(), without decoding them
+			if (!getWinner().isEmpty()) return;
+			for (long move : getRemainingMoves()) moveList.add(move);
+		}
+
+		@Override @Nonnull
+		public PrimitiveIterator.OfLong moveIterator() {
+			// Once there is a winner, nobody can move
+			if (!getWinner().isEmpty()) return Arrays.stream(new long[0]).iterator();
+			// If the moves have already been generated, go through those, otherwise generate them as needed
+			long[] remainingMoves = moves;
+			if (remainingMoves != null) return Arrays.stream(remainingMoves).iterator();
+			return newMoveIterator();
+		}
+
+		@Override
+		public long randomMove(@Nonnull RandomGenerator random) {
+			if (!getWinner().isEmpty()) return MoveCodec.NONE;
+			long[] remainingMoves = moves;
+			if (remainingMoves != null) {
+				return remainingMoves.length == 0 ? MoveCodec.NONE : remainingMoves[random.nextInt(remainingMoves.length)];
 			}
 
+			// Count the moves from the ticket masks of the edges and paths, then generate only the chosen one
+			Player[] players = remainingPlayers();
+			boolean doubles = canDouble();
+			int count = MoveIterator.count(game.graph, occupancy, players, doubles);
+			if (count == 0) return MoveCodec.NONE;
+			return MoveIterator.moveAt(game.graph, occupancy, players, doubles, random.nextInt(count));
+		}
+
+		private ImmutableSet<Piece> computeWinner() {
+			// After every move, check whether a detective has captured Mr. X (i.e. is standing on his station)
+			if (occupancy.contains(mrX.location())) return game.detectives;
+
 			// Otherwise, once all detectives have moved (i.e. it's Mr. X's turn), check:
-			if (remaining.equals(ImmutableSet.of(mrX.piece()))) {
-				// If Mr. X can't move
-				if (getAvailableMoves().isEmpty()) return getDetectivesSet();
+			if (remaining.equals(game.mrX)) {
+				// If Mr. X can't move (he has no double moves without a single move to start them with)
+				if (!canMove(game.graph, occupancy, mrX)) return game.detectives;
 
 				// If the log is full (Mr. X has escaped!)
-				if (log.size() == setup.moves.size()) return ImmutableSet.of(mrX.piece());
-
-				// Determine if NONE of the detectives can move, using the makeSingleMoves() method to get the
-				// detective moves (this allows 'remaining' to be kept final)
-				boolean noneCanMove = detectives.stream()
-						.map(detective -> makeSingleMoves(setup, detectives, detective, detective.location()))
-						.map(Set::isEmpty) 		// (Is each returned set of moves empty?)
-						.reduce(true, (acc, bool) -> acc && bool);
-				if (noneCanMove) return ImmutableSet.of(mrX.piece());
+				if (log.size() == game.setup.moves.size()) return game.mrX;
+
+				// If NONE of the detectives can move (advance() keeps track of who can)
+				if (movable == 0) return game.mrX;
 			}
 
 			// Otherwise, it's the middle of the round - can't determine winner yet!
 			return ImmutableSet.of();
-        }
+		}
 
-		@Override @Nonnull
-		public ImmutableSet<Move> getAvailableMoves() {
-			if (winners != null && !winners.isEmpty()) return ImmutableSet.of();
-
-			ImmutableSet.Builder<Move> builder = ImmutableSet.builder();
-
-			// If it is Mr. X's turn:
-			if (remaining.contains(mrX.piece())) {
-				// Get single moves
-				Set<SingleMove> singleMoves = makeSingleMoves(setup, detectives, mrX, mrX.location());
-				builder.addAll(singleMoves);
-				// and if possible, get double moves too
-				if (mrX.has(Ticket.DOUBLE) && setup.moves.size() >= 2) {
-					Set<DoubleMove> doubleMoves = makeDoubleMoves(setup, detectives, mrX, mrX.location());
-					builder.addAll(doubleMoves);
-				}
-			}
-			// else, it is the detectives' turns:
-			else {
-				// For each detective who hasn't yet moved:
-				for (Piece piece : remaining) {
-					Player player = getPlayer(piece);
-					if (player != null) {
-						// Get that detective's single moves
-						Set<SingleMove> singleMoves = makeSingleMoves(setup, detectives, player, player.location());
-						builder.addAll(singleMoves);
-					}
-				}
+		// Gets the encoded moves of the remaining players, regardless of whether the game is over (used in:
+		// getWinner(), getAvailableMoves(), generateMoves(), advance())
+		private long[] getRemainingMoves() {
+			long[] remainingMoves = moves;		// (read the volatile field once)
+			if (remainingMoves == null) moves = remainingMoves = makeMoves();
+			return remainingMoves;
+		}
+
+		private long[] makeMoves() {
+			MoveList moveList = new MoveList();
+			for (PrimitiveIterator.OfLong iterator = newMoveIterator(); iterator.hasNext(); ) moveList.add(iterator.nextLong());
+			return moveList.toArray();
+		}
+
+		// Makes a generator of the remaining players' moves (used in: makeMoves(), moveIterator())
+		private MoveIterator newMoveIterator() {
+			return new MoveIterator(game.graph, occupancy, remainingPlayers(), canDouble());
+		}
+
+		// Gets the players who are yet to move this turn (used in: newMoveIterator(), randomMove())
+		private Player[] remainingPlayers() {
+			// If it is Mr. X's turn, only he moves
+			if (remaining.contains(mrX.piece())) return new Player[]{mrX};
+			// else, it is the detectives' turns: each detective who hasn't yet moved makes single moves
+			List<Player> players = new ArrayList<>(remaining.size());
+			for (Piece piece : remaining) {
+				Player player = getPlayer(piece);
+				if (player != null) players.add(player);
 			}
+			return players.toArray(new Player[0]);
+		}
 
-			return builder.build();
+		// Whether Mr. X can make double moves on top of his single moves: only on his turn, and only if
+		// there are at least two rounds left to log (used in: newMoveIterator(), randomMove())
+		private boolean canDouble() {
+			return remaining.contains(mrX.piece()) && mrX.has(Ticket.DOUBLE) && game.setup.moves.size() - log.size() >= 2;
 		}
 
 		@Override @Nonnull
-		public GameState advance(Move move) {
+		public EngineGameState advance(Move move) {
+			// Check first that the move can be made at all, the encoded advance() checks that it is legal
+			if (move == null) throw new IllegalArgumentException("Illegal move being made: null");
+			return advance(MoveCodec.encode(move));
+		}
+
+		@Override @Nonnull
+		public EngineGameState advance(long move) {
 			// Check first that the move being made is legal
-			if(!moves.contains(move)) throw new IllegalArgumentException("Illegal move being made: " + move);
-
-			// Implements an (anonymous) inner class of the 'Visitor<T>' interface, which is
-			// passed as an argument to the accept(Visitor<T> visitor) method of the 'move' class
-			// NOTE: Could have been replaced with a lambda if the 'Visitor<T>' interface only had one
-			// method to be implemented, but it has two... :(
-			return move.accept(
-					new Visitor<GameState>() {
-
-						@Override
-						public GameState visit(SingleMove move) {
-							// Holds the updated set of remaining players
-							ImmutableSet<Piece> updatedRemaining = updateRemaining(move.commencedBy());
-							// Holds the updated Mr. X
-							Player updatedMrX;
-
-							// If mr X just moved:
-							if (move.commencedBy().equals(mrX.piece())) {
-								// Update Mr. X
-								updatedMrX = mrX.use(move.ticket).at(move.destination);
-
-								// initialise an ImmutableList builder that takes all elements of the travel log
-								ImmutableList.Builder<LogEntry> newLog = new ImmutableList.Builder<>();
-								newLog.addAll(getMrXTravelLog());
-								// add the new log entry, checking if it's Mr X's reveal move
-								if(setup.moves.get(log.size())) 	newLog.add(LogEntry.reveal(move.ticket, move.destination));
-								else 								newLog.add(LogEntry.hidden(move.ticket));
-
-								// Return new game state
-								return new MyGameState(setup, updatedMrX, detectives, updatedRemaining, newLog.build());
-							}
-
-							// else, one of the detectives has moved:
-							else {
-								List<Player> newDetectives = new ArrayList<>(detectives);
-
-								for (int i = 0; i < newDetectives.size(); i++) {
-									// if this detective commenced the move, update the location and tickets
-									if (newDetectives.get(i).piece().equals(move.commencedBy())) {
-										newDetectives.set(i, newDetectives.get(i).at(move.destination).use(move.ticket));
-										break; // breaks from the loop once detective found
-									}
-								}
-
-								updatedMrX = mrX.give(move.ticket);
-
-								return new MyGameState(setup, updatedMrX, newDetectives, updatedRemaining, log);
-							}
-
-						}
-
-						@Override
-						public GameState visit(DoubleMove move) {
-							// NOTE: Since only Mr. X can make double moves, we know it was Mr. X's turn
-
-							// Holds the updated set of remaining players
-							ImmutableSet<Piece> updatedRemaining = updateRemaining(move.commencedBy());
-							// Holds the updated Mr. X
-							Player updatedMrX = mrX;
-
-							// Update the log
-							ImmutableList.Builder<LogEntry> newLog = new ImmutableList.Builder<>();
-							newLog.addAll(log);
-								// First move
-							if(setup.moves.get(log.size())) 	newLog.add(LogEntry.reveal(move.ticket1, move.destination1));
-							else 								newLog.add(LogEntry.hidden(move.ticket1));
-							updatedMrX = updatedMrX.at(move.destination1).use(move.ticket1);
-
-								// Second move
-							if(setup.moves.get(log.size() + 1)) 	newLog.add(LogEntry.reveal(move.ticket2, move.destination2));
-							else 									newLog.add(LogEntry.hidden(move.ticket2));
-							updatedMrX = updatedMrX.at(move.destination2).use(move.ticket2).use(Ticket.DOUBLE);
-
-							return new MyGameState(setup, updatedMrX, detectives, updatedRemaining, newLog.build());
-						}
-			});
+			if (!isLegal(move)) throw new IllegalArgumentException("Illegal move being made: " + MoveCodec.toString(move));
+			return apply(move);
 		}
-		// ------------------------------
 
+		@Override @Nonnull
+		public EngineGameState advanceTrusted(Move move) {
+			return advanceTrusted(MoveCodec.encode(move));
+		}
 
-		// --------------- Helper Methods ---------------
+		@Override @Nonnull
+		public EngineGameState advanceTrusted(long move) {
+			// Skips generating the moves to check the move against, unless assertions are on (e.g. in the tests)
+			assert isLegal(move) : "Illegal move being made: " + MoveCodec.toString(move);
+			return apply(move);
+		}
 
-		// Gets all VALID single moves (used in: makeDoubleMoves(), getAvailableMoves(), getWinner())
-		private static Set<SingleMove> makeSingleMoves(GameSetup setup, List<Player> detectives, Player player, int source) {
-			Set<SingleMove> singleMoves = new HashSet<>();
-
-			// For each adjacent location (adjacent = connected by a mode of transport):
-			for (int destination : setup.graph.adjacentNodes(source)) {
-				// First, check if that location is occupied
-				boolean occupied = false;
-				for (Player detective : detectives) {
-					if (detective.location() == destination) {
-						occupied = true;
-						break;
-					}
-				}
-				if (occupied) continue;
+		// Whether the encoded move is one of the available moves (used in: advance(), advanceTrusted())
+		private boolean isLegal(long move) {
+			return getWinner().isEmpty() && contains(getRemainingMoves(), move);
+		}
 
-				// Next check each possible way of reaching the location, and if the player has the right ticket
-				for (Transport t : setup.graph.edgeValueOrDefault(source, destination, ImmutableSet.of())) {
-					if (player.has(t.requiredTicket())) {
-						singleMoves.add(new SingleMove(player.piece(), source, t.requiredTicket(), destination));
-					}
-				}
+		// Makes the encoded move, which must be legal (used in: advance(), advanceTrusted())
+		private EngineGameState apply(long move) {
+			Piece piece = MoveCodec.piece(move);
+			// Holds the updated Mr. X
+			Player updatedMrX;
+
+			// If Mr. X made a double move:
+			// NOTE: Since only Mr. X can make double moves, we know it was Mr. X's turn
+			if (MoveCodec.isDouble(move)) {
+				Ticket ticket1 = MoveCodec.ticket1(move), ticket2 = MoveCodec.ticket2(move);
+				int destination1 = MoveCodec.destination1(move), destination2 = MoveCodec.destination2(move);
+
+				// Update the log
+				TravelLog newLog = log
+						.append(makeLogEntry(ticket1, destination1, log.size()))		// First move
+						.append(makeLogEntry(ticket2, destination2, log.size() + 1));	// Second move
+				updatedMrX = mrX.at(destination1).use(ticket1);
+				updatedMrX = updatedMrX.at(destination2).use(ticket2).use(Ticket.DOUBLE);
+
+				// Mr X doesn't block anyone, so the same detectives can move, and they are next
+				ImmutableSet<Piece> updatedRemaining = updateRemaining(piece, movable);
+
+				// Update the key (when both tickets are the same type, its count only changes once)
+				long updatedKey = key ^ Zobrist.remaining(remaining) ^ Zobrist.remaining(updatedRemaining)
+						^ Zobrist.location(piece, mrX.location()) ^ Zobrist.location(piece, destination2)
+						^ ticketChange(mrX, updatedMrX, ticket1) ^ ticketChange(mrX, updatedMrX, Ticket.DOUBLE)
+						^ Zobrist.round(log.size()) ^ Zobrist.round(newLog.size());
+				if (ticket2 != ticket1) updatedKey ^= ticketChange(mrX, updatedMrX, ticket2);
+
+				return new MyGameState(game, updatedMrX, detectives, occupancy, movable, updatedRemaining, newLog, updatedKey);
+			}
 
-				// If the player (mrX) has a secret ticket, also add that possible move to the set
-				if (player.isMrX() && player.has(Ticket.SECRET)) {
-					singleMoves.add(new SingleMove(player.piece(), source, Ticket.SECRET, destination));
-				}
+			Ticket ticket = MoveCodec.ticket1(move);
+			int destination = MoveCodec.destination1(move);
+
+			// If mr X just moved:
+			if (piece.equals(mrX.piece())) {
+				// Update Mr. X
+				updatedMrX = mrX.use(ticket).at(destination);
+
+				// append the new log entry (sharing the rest of the log), checking if it's Mr X's reveal move
+				TravelLog newLog = log.append(makeLogEntry(ticket, destination, log.size()));
+
+				// The same detectives can move, and they are next
+				ImmutableSet<Piece> updatedRemaining = updateRemaining(piece, movable);
+
+				// Update the key
+				long updatedKey = key ^ Zobrist.remaining(remaining) ^ Zobrist.remaining(updatedRemaining)
+						^ Zobrist.location(piece, mrX.location()) ^ Zobrist.location(piece, destination)
+						^ ticketChange(mrX, updatedMrX, ticket) ^ Zobrist.round(log.size()) ^ Zobrist.round(newLog.size());
+
+				// Return new game state
+				return new MyGameState(game, updatedMrX, detectives, occupancy, movable, updatedRemaining, newLog, updatedKey);
 			}
 
-			return singleMoves;
-		}
-
-		// Gets all VALID double moves (used in: getAvailableMoves())
-		private static Set<DoubleMove> makeDoubleMoves(GameSetup setup,  List<Player> detectives, Player player, int source) {
-			// Set to hold our new double moves
-			Set<DoubleMove> doubleMoves = new HashSet<>();
-			// Set for the first of the two moves to be made
-			Set<SingleMove> firstMoves = makeSingleMoves(setup, detectives, player, source);
-
-			for (SingleMove firstMove : firstMoves) {
-				// Generate the second of the two moves by calling makeSingleMoves() again, using a player with
-				// one less ticket of the type used for the first move, and the destination as the source
-				// NOTE: This works (original player object is not changed) because Java is pass-by-value!!!!!
-				Set<SingleMove> secondMoves =
-						makeSingleMoves(setup, detectives, player.use(firstMove.ticket), firstMove.destination);
-
-				// Since makeSingleMoves() only generates valid moves, we can just add them to our doubleMoves
-				// set without further checks
-				for (SingleMove secondMove : secondMoves) {
-					doubleMoves.add(
-							new DoubleMove(player.piece(), firstMove.source(),
-										  firstMove.ticket, firstMove.destination,
-										  secondMove.ticket, secondMove.destination)
-					);
+			// else, one of the detectives has moved:
+			List<Player> newDetectives = new ArrayList<>(detectives);
+
+			// update the location and tickets of the detective who commenced the move
+			int index = game.indexOf(piece);
+			Player detective = newDetectives.get(index);
+			Player updatedDetective = detective.at(destination).use(ticket);
+			newDetectives.set(index, updatedDetective);
+			// and the detective leaves its station for the destination
+			int source = MoveCodec.source(move);
+			Occupancy newOccupancy = occupancy.move(source, destination);
+
+			// Only the detective's own moves, and those of the detectives next to the two stations, can have changed
+			int updatedMovable = updateMovable(newDetectives, newOccupancy, index, source, destination);
+			ImmutableSet<Piece> updatedRemaining = updateRemaining(piece, updatedMovable);
+
+			updatedMrX = mrX.give(ticket);
+			long updatedKey = key ^ Zobrist.remaining(remaining) ^ Zobrist.remaining(updatedRemaining)
+					^ Zobrist.location(piece, detective.location()) ^ Zobrist.location(piece, destination)
+					^ ticketChange(detective, updatedDetective, ticket) ^ ticketChange(mrX, updatedMrX, ticket);
+
+			return new MyGameState(game, updatedMrX, newDetectives, newOccupancy, updatedMovable, updatedRemaining,
+					log, updatedKey);
+		}
+
+		// Two states are equal if they are the same position of the same game, including Mr X's travel log
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			MyGameState that = (MyGameState) o;
+			// Comparing the keys first rules out almost every unequal state straight away
+			return key == that.key
+					&& (game == that.game || game.setup.equals(that.game.setup))
+					&& mrX.equals(that.mrX)
+					&& detectives.equals(that.detectives)
+					&& remaining.equals(that.remaining)
+					&& log.equals(that.log);
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(key);
+		}
+		// ------------------------------
+
+
+		// --------------- Helper Methods ---------------
+
+		// Checks whether the player has at least one single move (used in: getWinner(), movable(), updateMovable())
+		private static boolean canMove(CompiledGraph graph, Occupancy occupancy, Player player) {
+			int source = player.location();
+			for (int edge = graph.firstEdge(source); edge < graph.endEdge(source); edge++) {
+				if (occupancy.contains(graph.neighbour(edge))) continue;
+				// Mr X can also use a secret ticket along any edge
+				int tickets = graph.tickets(edge);
+				if (player.isMrX()) tickets |= CompiledGraph.bit(Ticket.SECRET);
+				for (Ticket ticket : TICKETS) {
+					if ((tickets & CompiledGraph.bit(ticket)) != 0 && player.has(ticket)) return true;
 				}
+			}
+			return false;
+		}
 
+		// Gets the change of the Zobrist key when the player's count of the ticket changes (used in: advance())
+		private static long ticketChange(Player before, Player after, Ticket ticket) {
+			return Zobrist.tickets(before.piece(), ticket, before.count(ticket))
+					^ Zobrist.tickets(after.piece(), ticket, after.count(ticket));
+		}
+
+		// Checks whether the encoded move is one of the moves (used in: advance())
+		private static boolean contains(long[] moves, long move) {
+			for (long m : moves) {
+				if (m == move) return true;
 			}
+			return false;
+		}
 
-			return doubleMoves;
+		// Makes Mr X's log entry for the given round, revealing his location if it's a reveal round (used in: advance())
+		private LogEntry makeLogEntry(Ticket ticket, int destination, int round) {
+			return game.setup.moves.get(round) ? LogEntry.reveal(ticket, destination) : LogEntry.hidden(ticket);
 		}
 
-		// Return the Player associated with Piece (used in: getAvailableMoves())
+		// Return the Player associated with Piece, or null if it isn't playing (used in: getPlayerTickets(), makeMoves())
 		Player getPlayer(Piece piece) {
 			if (mrX.piece().equals(piece)) return mrX;
-			for (Player detective : detectives) {
-				if (detective.piece().equals(piece)) return detective;
-			}
-			return null;
+			int index = game.indexOf(piece);
+			return index < 0 ? null : detectives.get(index);
 		}
 
-		// Update the set of remaining Players (used in: advance())
-		public ImmutableSet<Piece> updateRemaining(Piece justPlayed) {
+		// Update the set of remaining Players, given which detectives can move after the move (used in: advance())
+		private ImmutableSet<Piece> updateRemaining(Piece justPlayed, int updatedMovable) {
 			// Holds the set of players yet to play
 			ImmutableSet.Builder<Piece> newRemaining = ImmutableSet.builder();
 
 			// if mrX just played, detectives WHO CAN MOVE are added to remaining
 			if (justPlayed.equals(mrX.piece())) {
-				detectives.forEach(detective -> {
-					if (!makeSingleMoves(setup, detectives, detective, detective.location()).isEmpty())
-						newRemaining.add(detective.piece());
-				});
+				for (int i = 0; i < detectives.size(); i++) {
+					if ((updatedMovable & (1 << i)) != 0) newRemaining.add(detectives.get(i).piece());
+				}
 			}
-			// else if detective just played, add all other detectives into updatedRemaining except this one
+			// else if detective just played, add all other detectives into updatedRemaining except this one,
+			// skipping any who have just been blocked in by the move
 			else {
 				for (Piece piece : remaining) {
-					if (!piece.equals(justPlayed)) {
+					if (!piece.equals(justPlayed) && (updatedMovable & (1 << game.indexOf(piece))) != 0) {
 						newRemaining.add(piece);
 					}
 				}
@@ -392,16 +569,32 @@ public final class MyGameStateFactory implements Factory<GameState> {
 			ImmutableSet<Piece> builtSet = newRemaining.build();
 
 			// if the updated (new) remaining is empty, no detectives are left, initialise new mrX's turn (next round)
-			return builtSet.isEmpty() ? ImmutableSet.of(mrX.piece()) : builtSet;
+			return builtSet.isEmpty() ? game.mrX : builtSet;
 		}
 
-		// Return a set of detectives (used in: getWinner())
-		public ImmutableSet<Piece> getDetectivesSet() {
-			ImmutableSet.Builder<Piece> builder = ImmutableSet.builder();
-
-			detectives.forEach(detective -> builder.add(detective.piece()));
+		// Update which detectives can move after detective 'index' moved from source to destination (used in: advance())
+		private int updateMovable(List<Player> newDetectives, Occupancy newOccupancy, int index, int source, int destination) {
+			int updatedMovable = movable;
+			for (int i = 0; i < newDetectives.size(); i++) {
+				Player detective = newDetectives.get(i);
+				boolean canMoveBefore = (movable & (1 << i)) != 0;
+				// A detective who could move can only be blocked in by the destination being taken, and one who
+				// couldn't can only be freed by the source being left (the mover's own tickets changed, so always check)
+				if (i == index || (canMoveBefore ? isNeighbour(game.graph, detective.location(), destination)
+						: isNeighbour(game.graph, detective.location(), source))) {
+					if (canMove(game.graph, newOccupancy, detective)) updatedMovable |= 1 << i;
+					else updatedMovable &= ~(1 << i);
+				}
+			}
+			return updatedMovable;
+		}
 
-			return builder.build();
+		// Checks whether the stations are joined by an edge (used in: updateMovable())
+		private static boolean isNeighbour(CompiledGraph graph, int station, int other) {
+			for (int edge = graph.firstEdge(station); edge < graph.endEdge(station); edge++) {
+				if (graph.neighbour(edge) == other) return true;
+			}
+			return false;
 		}
 		// ------------------------------
 	}
@@ -0,0 +1,114 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+
+/**
+ * An immutable bitset of the stations occupied by detectives.
+ * <br>
+ * Bit {@code station} is set if a detective is standing on {@code station}, so checking whether a
+ * station is free is a single bit test no matter how many detectives there are. The whole standard
+ * map fits into four {@code long}s, which is all {@link #move(int, int)} has to copy.
+ */
+public final class Occupancy {
+	private static final Occupancy EMPTY = new Occupancy(new long[0]);
+
+	private final long[] words;
+
+	private Occupancy(long[] words) {
+		this.words = words;
+	}
+
+	/**
+	 * @return an occupancy with no occupied stations
+	 */
+	@Nonnull public static Occupancy empty() { return EMPTY; }
+
+	/**
+	 * @param stations the occupied stations, all &gt;= 0
+	 * @return an occupancy with exactly the given stations occupied
+	 */
+	@Nonnull public static Occupancy of(@Nonnull int... stations) {
+		int max = -1;
+		for (int station : stations) max = Math.max(max, checkStation(station));
+		long[] words = new long[(max >> 6) + 1];
+		for (int station : stations) words[station >> 6] |= 1L << station;
+		return new Occupancy(words);
+	}
+
+	/**
+	 * @param board the board
+	 * @return an occupancy of the stations the board's detectives are standing on
+	 */
+	@Nonnull public static Occupancy ofDetectives(@Nonnull Board board) {
+		int[] stations = board.getPlayers().stream()
+				.filter(Piece::isDetective)
+				.map(piece -> board.getDetectiveLocation((Detective) piece))
+				.flatMap(Optional::stream)
+				.mapToInt(Integer::intValue)
+				.toArray();
+		return of(stations);
+	}
+
+	/**
+	 * @param station the station
+	 * @return whether a detective is standing on the station
+	 */
+	public boolean contains(int station) {
+		int word = station >> 6;
+		return station >= 0 && word < words.length && (words[word] & (1L << station)) != 0;
+	}
+
+	/**
+	 * @param from the occupied station a detective is leaving
+	 * @param to the station the detective is moving to
+	 * @return a new occupancy with {@code from} freed and {@code to} occupied
+	 */
+	@Nonnull public Occupancy move(int from, int to) {
+		long[] moved = Arrays.copyOf(words, Math.max(words.length, (checkStation(to) >> 6) + 1));
+		if (contains(from)) moved[from >> 6] &= ~(1L << from);
+		moved[to >> 6] |= 1L << to;
+		return new Occupancy(moved);
+	}
+
+	/**
+	 * @return the number of occupied stations
+	 */
+	public int size() {
+		int size = 0;
+		for (long word : words) size += Long.bitCount(word);
+		return size;
+	}
+
+	@Override public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		long[] a = words, b = ((Occupancy) o).words;
+		for (int i = 0; i < Math.max(a.length, b.length); i++) {
+			if ((i < a.length ? a[i] : 0) != (i < b.length ? b[i] : 0)) return false;
+		}
+		return true;
+	}
+	@Override public int hashCode() {
+		// Trailing zero words must not change the hash, so equal occupancies of different lengths agree
+		int length = words.length;
+		while (length > 0 && words[length - 1] == 0) length--;
+		return Arrays.hashCode(Arrays.copyOf(words, length));
+	}
+	@Override public String toString() {
+		StringBuilder builder = new StringBuilder("Occupancy[");
+		for (int i = 0; i < words.length * 64; i++) {
+			if (contains(i)) builder.append(builder.length() > 10 ? ", " : "").append(i);
+		}
+		return builder.append(']').toString();
+	}
+
+	private static int checkStation(int station) {
+		if (station < 0) throw new IllegalArgumentException("Negative station: " + station);
+		return station;
+	}
+}
@@ -0,0 +1,339 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Move.*;
+import uk.ac.bris.cs.scotlandyard.model.Piece.*;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.*;
+
+import java.util.*;
+
+/**
+ * A {@link GameState} factory whose states are a handful of primitive arrays instead of
+ * {@link Player}s and Guava collections.
+ * <br>
+ * Player {@code 0} is always Mr X, followed by the detectives in the order they were given.
+ * Locations are held in a {@code short[]}, each player's ticket board is packed into a
+ * {@code long} (see {@link PackedTickets}), the remaining players are a bitmask over the
+ * player indices and the travel log is a persistent {@link TravelLog}. As with {@link Player}, a
+ * mask of the tickets in each player's map is kept, and only those are given to Mr X. Everything shared
+ * between states of the same game lives in a single {@link Game} object, so
+ * {@link GameState#advance(Move)} only copies a few small arrays.
+ * The winner and the available moves are computed lazily on first request.
+ */
+public final class PackedGameStateFactory implements Factory<GameState> {
+
+	// Bitmask of the remaining players when it's Mr X's turn
+	private static final int MRX_ONLY = 1;
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	@Nonnull @Override
+	public GameState build(GameSetup setup, Player mrX, ImmutableList<Player> detectives) {
+		validate(setup, mrX, detectives);
+
+		int players = detectives.size() + 1;
+		Piece[] pieces = new Piece[players];
+		short[] locations = new short[players];
+		long[] tickets = new long[players];
+		int[] present = new int[players];
+		for (int i = 0; i < players; i++) {
+			Player player = (i == 0) ? mrX : detectives.get(i - 1);
+			pieces[i] = player.piece();
+			locations[i] = (short) player.location();
+			tickets[i] = player.packedTickets();
+			present[i] = player.presentTickets();
+		}
+
+		Occupancy occupancy = Occupancy.of(detectives.stream().mapToInt(Player::location).toArray());
+		return new PackedGameState(new Game(setup, pieces, present), locations, tickets, occupancy, MRX_ONLY, TravelLog.empty());
+	}
+
+	// Same checks as MyGameStateFactory, plus the ones the primitive representation relies on
+	private static void validate(GameSetup setup, Player mrX, List<Player> detectives) {
+		if (setup.moves.isEmpty()) throw new IllegalArgumentException("Moves is empty!");
+
+		if (mrX == null) throw new NullPointerException("Mr X is null!");
+		if (mrX.isDetective()) throw new IllegalArgumentException("No Mr X!");
+
+		if (detectives == null) throw new NullPointerException("Detectives set is null!");
+
+		Set<Piece> pieces = new HashSet<>();
+		Set<Integer> locations = new HashSet<>();
+		for (Player detective : detectives) {
+			if (detective == null) throw new NullPointerException("A detective is null!");
+			if (detective.isMrX()) throw new IllegalArgumentException("A detective is Mr X!");
+			if (detective.has(Ticket.DOUBLE)) throw new IllegalArgumentException("A detective has a double ticket!");
+			if (detective.has(Ticket.SECRET)) throw new IllegalArgumentException("A detective has a secret ticket!");
+			if (!pieces.add(detective.piece())) throw new IllegalArgumentException("Detectives are duplicate!");
+			if (!locations.add(detective.location())) throw new IllegalArgumentException("Locations are duplicate!");
+			if (setup.graph.nodes().isEmpty()) throw new IllegalArgumentException("Graph is empty!");
+		}
+
+		// Locations must be stations on the graph, and fit in a short
+		List<Player> players = new ArrayList<>(detectives);
+		players.add(mrX);
+		for (Player player : players) {
+			if (!setup.graph.nodes().contains(player.location()))
+				throw new IllegalArgumentException("Not a station on the graph: " + player);
+			if (player.location() < 0 || player.location() > Short.MAX_VALUE)
+				throw new IllegalArgumentException("Location out of range: " + player);
+		}
+	}
+
+	/**
+	 * Everything that stays the same for every state of one game
+	 */
+	private static final class Game {
+		private final GameSetup setup;
+		private final CompiledGraph graph;
+		private final Piece[] pieces;						// Player index -> piece
+		private final int[] present;						// Player index -> mask of the tickets in their map, never changes
+		private final ImmutableSet<Piece> players;
+		private final ImmutableSet<Piece> detectives;
+		private final ImmutableSet<Piece> mrX;
+
+		private Game(GameSetup setup, Piece[] pieces, int[] present) {
+			this.setup = setup;
+			this.graph = SetupRegistry.graph(setup);
+			this.pieces = pieces;
+			this.present = present;
+			this.players = ImmutableSet.copyOf(pieces);
+			this.detectives = ImmutableSet.copyOf(Arrays.asList(pieces).subList(1, pieces.length));
+			this.mrX = ImmutableSet.of(pieces[0]);
+		}
+
+		// Returns the player index of the piece, or -1 if the piece isn't playing
+		private int indexOf(Piece piece) {
+			for (int i = 0; i < pieces.length; i++) {
+				if (pieces[i] == piece) return i;
+			}
+			return -1;
+		}
+	}
+
+	private static final class PackedGameState implements GameState {
+		private final Game game;
+		private final short[] locations;					// Player index -> station
+		private final long[] tickets;						// Player index -> packed ticket board
+		private final Occupancy occupancy;					// Stations the detectives are standing on
+		private final int remaining;						// Bit i is set if player i can still move this round
+		private final TravelLog log;						// Mr X's travel log, shared with the parent states
+
+		// Computed on first request; racing threads compute the same immutable value
+		private ImmutableSet<Piece> winner;
+		private ImmutableSet<Move> moves;
+
+		private PackedGameState(Game game, short[] locations, long[] tickets, Occupancy occupancy,
+		                        int remaining, TravelLog log) {
+			this.game = game;
+			this.locations = locations;
+			this.tickets = tickets;
+			this.occupancy = occupancy;
+			this.remaining = remaining;
+			this.log = log;
+		}
+
+
+		// --------------- Accessors/Getters ---------------
+		@Override @Nonnull
+		public GameSetup getSetup() {
+			return game.setup;
+		}
+
+		@Override @Nonnull
+		public ImmutableSet<Piece> getPlayers() {
+			return game.players;
+		}
+
+		@Override @Nonnull
+		public Optional<Integer> getDetectiveLocation(Detective detective) {
+			int index = game.indexOf(detective);
+			return index > 0 ? Optional.of((int) locations[index]) : Optional.empty();
+		}
+
+		@Override @Nonnull
+		public Optional<TicketBoard> getPlayerTickets(Piece piece) {
+			int index = game.indexOf(piece);
+			if (index < 0) return Optional.empty();
+			long packed = tickets[index];
+			return Optional.of(ticket -> PackedTickets.count(packed, ticket));
+		}
+
+		@Override @Nonnull
+		public ImmutableList<LogEntry> getMrXTravelLog() {
+			return log.asList();
+		}
+
+		@Override @Nonnull
+		public ImmutableSet<Piece> getWinner() {
+			if (winner == null) winner = computeWinner();
+			return winner;
+		}
+
+		@Override @Nonnull
+		public ImmutableSet<Move> getAvailableMoves() {
+			return getWinner().isEmpty() ? candidateMoves() : ImmutableSet.of();
+		}
+
+		@Override @Nonnull
+		public GameState advance(Move move) {
+			if (!getAvailableMoves().contains(move)) throw new IllegalArgumentException("Illegal move being made: " + move);
+
+			return move.accept(new Visitor<GameState>() {
+
+				@Override
+				public GameState visit(SingleMove move) {
+					int index = game.indexOf(move.commencedBy());
+					short[] newLocations = locations.clone();
+					long[] newTickets = tickets.clone();
+					newLocations[index] = (short) move.destination;
+					newTickets[index] = PackedTickets.use(tickets[index], move.ticket);
+
+					// Mr X logs his move, and hands over to the detectives who are able to move
+					if (index == 0) {
+						TravelLog newLog = log.append(logEntry(move.ticket, move.destination, log.size()));
+						return new PackedGameState(game, newLocations, newTickets, occupancy, detectivesToMove(), newLog);
+					}
+
+					// A detective gives the used ticket to Mr X (if it's in his map, as with Player.give()), and is done
+					// for this round, as is any detective the move has blocked in
+					if ((game.present[0] & (1 << move.ticket.ordinal())) != 0)
+						newTickets[0] = PackedTickets.give(tickets[0], move.ticket);
+					Occupancy newOccupancy = occupancy.move(move.source(), move.destination);
+					int newRemaining = remaining & ~(1 << index);
+					for (int i = 1; i < newLocations.length; i++) {
+						if ((newRemaining & (1 << i)) != 0 && !canMove(game, newLocations, newTickets, newOccupancy, i))
+							newRemaining &= ~(1 << i);
+					}
+					return new PackedGameState(game, newLocations, newTickets,
+							newOccupancy, newRemaining == 0 ? MRX_ONLY : newRemaining, log);
+				}
+
+				@Override
+				public GameState visit(DoubleMove move) {
+					short[] newLocations = locations.clone();
+					long[] newTickets = tickets.clone();
+					newLocations[0] = (short) move.destination2;
+					newTickets[0] = PackedTickets.use(PackedTickets.use(PackedTickets.use(
+							tickets[0], move.ticket1), move.ticket2), Ticket.DOUBLE);
+
+					TravelLog newLog = log
+							.append(logEntry(move.ticket1, move.destination1, log.size()))
+							.append(logEntry(move.ticket2, move.destination2, log.size() + 1));
+					return new PackedGameState(game, newLocations, newTickets, occupancy, detectivesToMove(), newLog);
+				}
+			});
+		}
+		// ------------------------------
+
+
+		// --------------- Helper Methods ---------------
+
+		private ImmutableSet<Piece> computeWinner() {
+			// Mr X has been captured
+			if (occupancy.contains(locations[0])) return game.detectives;
+
+			// The remaining checks only apply once all detectives have moved
+			if (remaining == MRX_ONLY) {
+				if (candidateMoves().isEmpty()) return game.detectives;
+				if (log.size() == game.setup.moves.size()) return game.mrX;
+				if (detectivesToMove() == MRX_ONLY) return game.mrX;
+			}
+			return ImmutableSet.of();
+		}
+
+		// The moves of the remaining players, regardless of whether the game is over
+		private ImmutableSet<Move> candidateMoves() {
+			if (moves == null) {
+				ImmutableSet.Builder<Move> builder = ImmutableSet.builder();
+				if ((remaining & MRX_ONLY) != 0) {
+					addSingleMoves(builder, 0, locations[0], tickets[0]);
+					if (PackedTickets.count(tickets[0], Ticket.DOUBLE) > 0
+							&& game.setup.moves.size() - log.size() >= 2) addDoubleMoves(builder);
+				} else {
+					for (int i = 1; i < locations.length; i++) {
+						if ((remaining & (1 << i)) != 0) addSingleMoves(builder, i, locations[i], tickets[i]);
+					}
+				}
+				moves = builder.build();
+			}
+			return moves;
+		}
+
+		private void addSingleMoves(ImmutableSet.Builder<? super SingleMove> builder, int index, int source, long tickets) {
+			Piece piece = game.pieces[index];
+			int available = PackedTickets.available(tickets);
+			if (index != 0) available &= ~CompiledGraph.bit(Ticket.SECRET);
+			CompiledGraph graph = game.graph;
+			for (int edge = graph.firstEdge(source); edge < graph.endEdge(source); edge++) {
+				int destination = graph.neighbour(edge);
+				if (occupancy.contains(destination)) continue;
+				// Mr X can take a secret ticket along any edge
+				int usable = (graph.tickets(edge) | CompiledGraph.bit(Ticket.SECRET)) & available;
+				for (Ticket ticket : TICKETS) {
+					if ((usable & CompiledGraph.bit(ticket)) != 0)
+						builder.add(new SingleMove(piece, source, ticket, destination));
+				}
+			}
+		}
+
+		// Mr X's double moves, along the graph's precomputed two-hop paths
+		private void addDoubleMoves(ImmutableSet.Builder<Move> builder) {
+			int source = locations[0];
+			int available = PackedTickets.available(tickets[0]);
+			CompiledGraph graph = game.graph;
+			for (int path = graph.firstPath(source); path < graph.endPath(source); path++) {
+				int firstEdge = graph.pathFirstEdge(path), secondEdge = graph.pathSecondEdge(path);
+				int middle = graph.neighbour(firstEdge), destination = graph.neighbour(secondEdge);
+				if (occupancy.contains(middle) || occupancy.contains(destination)) continue;
+				int firstTickets = (graph.tickets(firstEdge) | CompiledGraph.bit(Ticket.SECRET)) & available;
+				for (Ticket first : TICKETS) {
+					if ((firstTickets & CompiledGraph.bit(first)) == 0) continue;
+					// The second move can only use the same type of ticket if there was more than one
+					int secondAvailable = PackedTickets.available(PackedTickets.use(tickets[0], first));
+					int secondTickets = (graph.tickets(secondEdge) | CompiledGraph.bit(Ticket.SECRET)) & secondAvailable;
+					for (Ticket second : TICKETS) {
+						if ((secondTickets & CompiledGraph.bit(second)) != 0)
+							builder.add(new DoubleMove(game.pieces[0], source, first, middle, second, destination));
+					}
+				}
+			}
+		}
+
+		// Whether the player at the index has at least one single move
+		private boolean canMove(int index) {
+			return PackedGameState.canMove(game, locations, tickets, occupancy, index);
+		}
+
+		private static boolean canMove(Game game, short[] locations, long[] tickets, Occupancy occupancy, int index) {
+			int source = locations[index];
+			int available = PackedTickets.available(tickets[index]);
+			CompiledGraph graph = game.graph;
+			for (int edge = graph.firstEdge(source); edge < graph.endEdge(source); edge++) {
+				if ((graph.tickets(edge) & available) != 0 && !occupancy.contains(graph.neighbour(edge))) return true;
+			}
+			return false;
+		}
+
+		// The remaining mask once Mr X has moved: every detective who can move, or Mr X again if none can.
+		// Mr X's move never changes what the detectives can do, so this is computed from the current state
+		private int detectivesToMove() {
+			int mask = 0;
+			for (int i = 1; i < locations.length; i++) {
+				if (canMove(i)) mask |= 1 << i;
+			}
+			return mask == 0 ? MRX_ONLY : mask;
+		}
+
+		// Mr X's log entry for the round, revealing the destination on reveal rounds
+		private LogEntry logEntry(Ticket ticket, int destination, int round) {
+			return game.setup.moves.get(round) ? LogEntry.reveal(ticket, destination) : LogEntry.hidden(ticket);
+		}
+		// ------------------------------
+	}
+
+}
@@ -0,0 +1,113 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Static helpers for a ticket board packed into a single {@code long}.
+ * <br>
+ * Each {@link Ticket} gets a {@link #BITS}-bit field, indexed by the ticket's ordinal, so a whole
+ * ticket board fits into one primitive and can be copied, compared and hashed for free.
+ */
+final class PackedTickets {
+
+	private PackedTickets() {}
+
+	/**
+	 * Bits used by each ticket count
+	 */
+	static final int BITS = 12;
+	/**
+	 * Largest count a single ticket field can hold
+	 */
+	static final int MAX_COUNT = (1 << BITS) - 1;
+
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	/**
+	 * @param tickets the tickets to pack; missing tickets count as zero
+	 * @return the packed ticket board
+	 * @throws IllegalArgumentException if any count is negative or larger than {@link #MAX_COUNT}
+	 */
+	static long pack(@Nonnull Map<Ticket, Integer> tickets) {
+		long packed = 0;
+		for (Map.Entry<Ticket, Integer> entry : tickets.entrySet()) {
+			int count = entry.getValue();
+			if (count < 0 || count > MAX_COUNT)
+				throw new IllegalArgumentException("Ticket count out of range: " + entry);
+			packed |= (long) count << shift(entry.getKey());
+		}
+		return packed;
+	}
+
+	/**
+	 * @param packed the packed ticket board
+	 * @return an {@link ImmutableMap} holding every ticket type, in {@link Ticket} order
+	 */
+	@Nonnull static ImmutableMap<Ticket, Integer> unpack(long packed) {
+		return unpack(packed, (1 << TICKETS.length) - 1);
+	}
+
+	/**
+	 * @param packed the packed ticket board
+	 * @param present a mask with bit {@code ticket.ordinal()} set for every ticket to put in the map
+	 * @return an {@link ImmutableMap} holding the present tickets, in {@link Ticket} order
+	 */
+	@Nonnull static ImmutableMap<Ticket, Integer> unpack(long packed, int present) {
+		ImmutableMap.Builder<Ticket, Integer> builder = ImmutableMap.builder();
+		for (Ticket ticket : TICKETS) {
+			if ((present & (1 << ticket.ordinal())) != 0) builder.put(ticket, count(packed, ticket));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @param packed the packed ticket board
+	 * @param ticket the ticket
+	 * @return the number of the given ticket
+	 */
+	static int count(long packed, @Nonnull Ticket ticket) {
+		return (int) (packed >>> shift(ticket)) & MAX_COUNT;
+	}
+
+	/**
+	 * @param packed the packed ticket board
+	 * @param ticket the ticket to add one of
+	 * @return the packed ticket board with one more of the given ticket
+	 */
+	static long give(long packed, @Nonnull Ticket ticket) {
+		if (count(packed, ticket) == MAX_COUNT)
+			throw new IllegalStateException("Too many " + ticket + " tickets");
+		return packed + (1L << shift(ticket));
+	}
+
+	/**
+	 * @param packed the packed ticket board
+	 * @param ticket the ticket to remove one of
+	 * @return the packed ticket board with one less of the given ticket
+	 */
+	static long use(long packed, @Nonnull Ticket ticket) {
+		if (count(packed, ticket) == 0)
+			throw new IllegalArgumentException("No " + ticket + " remaining");
+		return packed - (1L << shift(ticket));
+	}
+
+	/**
+	 * @param packed the packed ticket board
+	 * @return a mask with bit {@code ticket.ordinal()} set for every ticket with a non-zero count
+	 */
+	static int available(long packed) {
+		int mask = 0;
+		for (int i = 0; i < TICKETS.length; i++) {
+			if (((packed >>> (i * BITS)) & MAX_COUNT) != 0) mask |= 1 << i;
+		}
+		return mask;
+	}
+
+	private static int shift(Ticket ticket) { return ticket.ordinal() * BITS; }
+}
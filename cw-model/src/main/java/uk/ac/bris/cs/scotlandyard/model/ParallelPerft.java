@@ -0,0 +1,277 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+
+/**
+ * Runs {@link Perft} and random playouts on a {@link ForkJoinPool}, for measuring how the game
+ * states scale over many cores.
+ * <br>
+ * The perft tree is split into one task per position a few plies below the root (one or two is
+ * plenty: the standard game has around a hundred Mr X moves), and each task walks its subtree on
+ * its own. The tasks share the states above the split, which is safe because game states are
+ * immutable: a state's lazily computed winner and moves are only ever replaced by equal values.
+ * {@code ParallelPerftTest} checks this by comparing parallel and sequential counts.
+ */
+public final class ParallelPerft {
+
+	private ParallelPerft() {}
+
+	/**
+	 * The work done by one thread of the pool
+	 */
+	public static final class ThreadStats {
+		public final long nodes;							// Leaves counted by the thread
+		public final long nanos;							// Time spent walking subtrees
+
+		private ThreadStats(long nodes, long nanos) {
+			this.nodes = nodes;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return the number of leaves the thread counted per second it was busy
+		 */
+		public double nodesPerSecond() { return nanos == 0 ? 0 : nodes * 1e9 / nanos; }
+
+		private ThreadStats plus(ThreadStats that) { return new ThreadStats(nodes + that.nodes, nanos + that.nanos); }
+
+		@Override public String toString() {
+			return String.format("%d nodes, %.1f ms, %.0f nodes/s", nodes, nanos / 1e6, nodesPerSecond());
+		}
+	}
+
+	/**
+	 * The counts of a parallel perft run, and how the work was spread over the pool
+	 */
+	public static final class Result {
+		public final Perft.Result total;
+		public final ImmutableMap<String, ThreadStats> threads;	// Thread name -> work done by the thread
+		public final int parallelism;
+
+		private Result(Perft.Result total, ImmutableMap<String, ThreadStats> threads, int parallelism) {
+			this.total = total;
+			this.threads = threads;
+			this.parallelism = parallelism;
+		}
+
+		/**
+		 * @param sequential a sequential run of the same position and depth
+		 * @return how many times faster this run was than the sequential one
+		 */
+		public double speedup(@Nonnull Perft.Result sequential) {
+			return total.nanos == 0 ? 0 : (double) sequential.nanos / total.nanos;
+		}
+
+		/**
+		 * @param sequential a sequential run of the same position and depth
+		 * @return the speedup per thread of the pool, 1 being perfect scaling
+		 */
+		public double efficiency(@Nonnull Perft.Result sequential) { return speedup(sequential) / parallelism; }
+
+		@Override public String toString() {
+			StringBuilder builder = new StringBuilder(total.toString());
+			threads.forEach((name, stats) -> builder.append("\n  ").append(name).append(": ").append(stats));
+			return builder.toString();
+		}
+	}
+
+	/**
+	 * The outcome of a batch of random playouts
+	 */
+	public static final class Playouts {
+		public final long games;
+		public final long mrXWins;
+		public final long detectiveWins;
+		public final long plies;							// Moves made over all games
+		public final long nanos;
+
+		private Playouts(long games, long mrXWins, long detectiveWins, long plies, long nanos) {
+			this.games = games;
+			this.mrXWins = mrXWins;
+			this.detectiveWins = detectiveWins;
+			this.plies = plies;
+			this.nanos = nanos;
+		}
+
+		private Playouts plus(Playouts that) {
+			return new Playouts(games + that.games, mrXWins + that.mrXWins,
+					detectiveWins + that.detectiveWins, plies + that.plies, 0);
+		}
+
+		/**
+		 * @return the number of moves made per second
+		 */
+		public double pliesPerSecond() { return nanos == 0 ? 0 : plies * 1e9 / nanos; }
+
+		@Override public String toString() {
+			return String.format("%d games (Mr X %d, detectives %d), %d plies, %.1f ms, %.0f plies/s",
+					games, mrXWins, detectiveWins, plies, nanos / 1e6, pliesPerSecond());
+		}
+	}
+
+	/**
+	 * @param pool the pool to run on
+	 * @param state the position to start from
+	 * @param depth the number of plies, at least 1
+	 * @param splitDepth the number of plies below the root to split the tree into tasks at, at least 1
+	 * @return the counts, the same as {@link Perft#perft(GameState, int)}'s, and the work of each thread
+	 */
+	@Nonnull public static Result perft(@Nonnull ForkJoinPool pool, @Nonnull GameState state, int depth, int splitDepth) {
+		if (depth < 1) throw new IllegalArgumentException("Depth must be at least 1: " + depth);
+		if (splitDepth < 1) throw new IllegalArgumentException("Split depth must be at least 1: " + splitDepth);
+
+		ConcurrentHashMap<String, ThreadStats> threads = new ConcurrentHashMap<>();
+		long start = System.nanoTime();
+		Perft.Counter counter = pool.invoke(new Subtree(state, depth, splitDepth, threads));
+		long nanos = System.nanoTime() - start;
+		return new Result(new Perft.Result(counter, nanos), ImmutableMap.copyOf(threads), pool.getParallelism());
+	}
+
+	/**
+	 * Plays random games to the end. Game {@code i} always plays the same moves for the same seed, so
+	 * the outcome doesn't depend on the pool.
+	 *
+	 * @param pool the pool to run on
+	 * @param state the position to start every game from
+	 * @param games the number of games to play
+	 * @param seed the seed of the random moves
+	 * @return the outcome of the games
+	 */
+	@Nonnull public static Playouts playouts(@Nonnull ForkJoinPool pool, @Nonnull GameState state, int games, long seed) {
+		if (games < 0) throw new IllegalArgumentException("Negative number of games: " + games);
+		long start = System.nanoTime();
+		Playouts playouts = pool.invoke(new PlayoutRange(state, 0, games, seed));
+		return new Playouts(playouts.games, playouts.mrXWins, playouts.detectiveWins, playouts.plies,
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Prints a sequential and a parallel perft run of a standard starting position, and how well the
+	 * parallel run scaled
+	 *
+	 * @param args the depth (5 by default), the seed of the starting position (0 by default) and the
+	 * number of threads (all processors by default)
+	 */
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+		int seed = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		GameState start = Perft.standardStart(new MyGameStateFactory(), seed);
+		Perft.Result sequential = Perft.perft(start, depth);
+		System.out.println("Sequential: " + sequential);
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			// A fresh start state, so the parallel run doesn't reuse the moves the sequential one remembered
+			Result parallel = perft(pool, Perft.standardStart(new MyGameStateFactory(), seed), depth, 2);
+			System.out.println("Parallel: " + parallel);
+			System.out.printf("Speedup %.2f on %d threads, efficiency %.0f%%%n",
+					parallel.speedup(sequential), parallel.parallelism, 100 * parallel.efficiency(sequential));
+			System.out.println("Playouts: " + playouts(pool, start, 1000, seed));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	// Counts the subtree of a state, in parallel down to the split depth
+	private static final class Subtree extends RecursiveTask<Perft.Counter> {
+		private static final long serialVersionUID = 1L;
+		private final GameState state;
+		private final int depth;
+		private final int splitDepth;
+		private final ConcurrentHashMap<String, ThreadStats> threads;
+
+		private Subtree(GameState state, int depth, int splitDepth, ConcurrentHashMap<String, ThreadStats> threads) {
+			this.state = state;
+			this.depth = depth;
+			this.splitDepth = splitDepth;
+			this.threads = threads;
+		}
+
+		@Override protected Perft.Counter compute() {
+			Perft.Counter counter = new Perft.Counter();
+			// Below the split (and at the last ply, where the moves are only counted) walk the subtree here
+			if (splitDepth == 0 || depth == 1) {
+				long start = System.nanoTime();
+				Perft.perft(state, depth, counter);
+				threads.merge(Thread.currentThread().getName(),
+						new ThreadStats(counter.nodes(), System.nanoTime() - start), ThreadStats::plus);
+				return counter;
+			}
+
+			ImmutableList<Move> moves = state.getAvailableMoves().asList();
+			if (moves.isEmpty()) {
+				counter.gameOver();
+				return counter;
+			}
+			List<Subtree> children = new ArrayList<>(moves.size());
+			for (Move move : moves) children.add(new Subtree(state.advance(move), depth - 1, splitDepth - 1, threads));
+			for (Subtree child : invokeAll(children)) counter.add(child.join());
+			return counter;
+		}
+	}
+
+	// Plays the games [from, to), splitting the range in half until it's small
+	private static final class PlayoutRange extends RecursiveTask<Playouts> {
+		private static final long serialVersionUID = 1L;
+		private static final int GAMES_PER_TASK = 8;
+		private final GameState state;
+		private final int from;
+		private final int to;
+		private final long seed;
+
+		private PlayoutRange(GameState state, int from, int to, long seed) {
+			this.state = state;
+			this.from = from;
+			this.to = to;
+			this.seed = seed;
+		}
+
+		@Override protected Playouts compute() {
+			if (to - from > GAMES_PER_TASK) {
+				int middle = (from + to) >>> 1;
+				PlayoutRange left = new PlayoutRange(state, from, middle, seed);
+				left.fork();
+				Playouts right = new PlayoutRange(state, middle, to, seed).compute();
+				return left.join().plus(right);
+			}
+
+			long mrXWins = 0, detectiveWins = 0, plies = 0;
+			for (int game = from; game < to; game++) {
+				SplittableRandom random = new SplittableRandom(seed ^ (game * 0x9E3779B97F4A7C15L));
+				GameState current = state;
+				if (current instanceof EngineGameState engine) {
+					// Picks each move without building the set of moves, the same pick as from the set
+					long move;
+					while ((move = engine.randomMove(random)) != MoveCodec.NONE) {
+						engine = engine.advanceTrusted(move);
+						plies++;
+					}
+					current = engine;
+				} else {
+					ImmutableList<Move> moves;
+					while (!(moves = current.getAvailableMoves().asList()).isEmpty()) {
+						current = current.advance(moves.get(random.nextInt(moves.size())));
+						plies++;
+					}
+				}
+				if (current.getWinner().stream().anyMatch(Piece::isMrX)) mrXWins++;
+				else detectiveWins++;
+			}
+			return new Playouts(to - from, mrXWins, detectiveWins, plies, 0);
+		}
+	}
+}
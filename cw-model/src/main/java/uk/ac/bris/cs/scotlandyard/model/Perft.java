@@ -0,0 +1,224 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map.Entry;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.Move.DoubleMove;
+import uk.ac.bris.cs.scotlandyard.model.Piece.MrX;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Factory;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * Counts the positions reachable in a number of plies, to measure how fast move generation and
+ * {@code advance} are, and to check that different implementations play the same game.
+ * <br>
+ * A ply is one player's move, so a full round with five detectives is six plies. The leaves are
+ * the positions exactly {@code depth} plies away; the moves leading to them are also counted by
+ * who made them and by their kind. Positions where the game ended before reaching the depth have
+ * no moves, and are counted separately.
+ * <br>
+ * Run {@link #main(String[])} with a depth (and optionally a seed for the starting position) to
+ * compare every factory in {@link ModelFactories} and {@link SearchState}.
+ */
+public final class Perft {
+	private static final int DETECTIVES = 5;
+	private static ImmutableValueGraph<Integer, ImmutableSet<Transport>> standardGraph;
+
+	private Perft() {}
+
+	/**
+	 * The counts of a perft run
+	 */
+	public static final class Result {
+		public final long nodes;							// Positions exactly depth plies away
+		public final long mrXMoves;							// Moves made by Mr X into those positions
+		public final long detectiveMoves;					// Moves made by the detectives into those positions
+		public final long singleMoves;
+		public final long doubleMoves;
+		public final long secretMoves;						// Moves using at least one secret ticket
+		public final long gameOvers;						// Positions where the game ended before the depth
+		public final long nanos;
+
+		Result(Counter counter, long nanos) {
+			this.nodes = counter.nodes;
+			this.mrXMoves = counter.mrXMoves;
+			this.detectiveMoves = counter.detectiveMoves;
+			this.singleMoves = counter.singleMoves;
+			this.doubleMoves = counter.doubleMoves;
+			this.secretMoves = counter.secretMoves;
+			this.gameOvers = counter.gameOvers;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @return the number of leaves found per second
+		 */
+		public double nodesPerSecond() { return nanos == 0 ? 0 : nodes * 1e9 / nanos; }
+
+		/**
+		 * @param that the other result
+		 * @return whether both results have the same counts, regardless of how long they took
+		 */
+		public boolean sameCounts(@Nonnull Result that) {
+			return nodes == that.nodes && mrXMoves == that.mrXMoves && detectiveMoves == that.detectiveMoves
+					&& singleMoves == that.singleMoves && doubleMoves == that.doubleMoves
+					&& secretMoves == that.secretMoves && gameOvers == that.gameOvers;
+		}
+
+		@Override public String toString() {
+			return String.format("nodes=%d (Mr X %d, detectives %d; single %d, double %d, secret %d), "
+							+ "game overs=%d, %.1f ms, %.0f nodes/s",
+					nodes, mrXMoves, detectiveMoves, singleMoves, doubleMoves, secretMoves,
+					gameOvers, nanos / 1e6, nodesPerSecond());
+		}
+	}
+
+	// The counts while a run is in progress
+	static final class Counter {
+		private long nodes, mrXMoves, detectiveMoves, singleMoves, doubleMoves, secretMoves, gameOvers;
+
+		private void leaf(boolean mrX, boolean isDouble, boolean secret) {
+			nodes++;
+			if (mrX) mrXMoves++; else detectiveMoves++;
+			if (isDouble) doubleMoves++; else singleMoves++;
+			if (secret) secretMoves++;
+		}
+
+		void gameOver() { gameOvers++; }
+
+		long nodes() { return nodes; }
+
+		// Adds the counts of another (finished) run
+		void add(Counter that) {
+			nodes += that.nodes;
+			mrXMoves += that.mrXMoves;
+			detectiveMoves += that.detectiveMoves;
+			singleMoves += that.singleMoves;
+			doubleMoves += that.doubleMoves;
+			secretMoves += that.secretMoves;
+			gameOvers += that.gameOvers;
+		}
+	}
+
+	/**
+	 * @param state the position to start from
+	 * @param depth the number of plies, at least 1
+	 * @return the counts of the positions reachable from the state through {@link GameState#advance(Move)}
+	 */
+	@Nonnull public static Result perft(@Nonnull GameState state, int depth) {
+		checkDepth(depth);
+		Counter counter = new Counter();
+		long start = System.nanoTime();
+		perft(state, depth, counter);
+		return new Result(counter, System.nanoTime() - start);
+	}
+
+	/**
+	 * @param state the position to start from, which is left as it was found
+	 * @param depth the number of plies, at least 1
+	 * @return the counts of the positions reachable from the state through {@link SearchState#make(long)}
+	 */
+	@Nonnull public static Result perft(@Nonnull SearchState state, int depth) {
+		checkDepth(depth);
+		Counter counter = new Counter();
+		long start = System.nanoTime();
+		perft(state, depth, new MoveList(), counter);
+		return new Result(counter, System.nanoTime() - start);
+	}
+
+	/**
+	 * @param factory the factory to build the state with
+	 * @param seed picks Mr X's and the detectives' starting locations, as the game does
+	 * @return the standard starting position of a game with five detectives and 24 moves
+	 */
+	@Nonnull public static GameState standardStart(@Nonnull Factory<GameState> factory, int seed) {
+		ImmutableList<Integer> locations = ScotlandYard.generateDetectiveLocations(seed, DETECTIVES);
+		ImmutableList.Builder<Player> detectives = ImmutableList.builder();
+		for (int i = 0; i < DETECTIVES; i++) {
+			detectives.add(new Player(ScotlandYard.DETECTIVES.asList().get(i),
+					ScotlandYard.defaultDetectiveTickets(), locations.get(i)));
+		}
+		Player mrX = new Player(MrX.MRX, ScotlandYard.defaultMrXTickets(), ScotlandYard.generateMrXLocation(seed));
+		return factory.build(new GameSetup(standardGraph(), ScotlandYard.STANDARD24MOVES), mrX, detectives.build());
+	}
+
+	/**
+	 * Prints the perft results of every factory in {@link ModelFactories}, and of {@link SearchState}
+	 *
+	 * @param args the depth (4 by default) and the seed of the starting position (0 by default)
+	 */
+	public static void main(String[] args) {
+		int depth = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int seed = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		for (Entry<Supplier<Factory<GameState>>, Supplier<Factory<Model>>> entry : ModelFactories.factories()) {
+			Factory<GameState> factory = entry.getKey().get();
+			System.out.println(factory.getClass().getSimpleName() + ": "
+					+ perft(standardStart(factory, seed), depth));
+		}
+		SearchState search = SearchState.of(standardStart(new MyGameStateFactory(), seed));
+		System.out.println(SearchState.class.getSimpleName() + ": " + perft(search, depth));
+	}
+
+	static void perft(GameState state, int depth, Counter counter) {
+		ImmutableSet<Move> moves = state.getAvailableMoves();
+		if (moves.isEmpty()) {
+			counter.gameOver();
+			return;
+		}
+		for (Move move : moves) {
+			// The moves at the last ply are only counted, not made
+			if (depth == 1) {
+				boolean secret = false;
+				for (Ticket ticket : move.tickets()) secret |= ticket == Ticket.SECRET;
+				counter.leaf(move.commencedBy().isMrX(), move instanceof DoubleMove, secret);
+			} else perft(state.advance(move), depth - 1, counter);
+		}
+	}
+
+	private static void perft(SearchState state, int depth, MoveList moves, Counter counter) {
+		int start = moves.size();
+		state.generateMoves(moves);
+		int end = moves.size();
+		if (start == end) {
+			counter.gameOver();
+			return;
+		}
+		for (int i = start; i < end; i++) {
+			long move = moves.get(i);
+			if (depth == 1) {
+				boolean isDouble = MoveCodec.isDouble(move);
+				boolean secret = MoveCodec.ticket1(move) == Ticket.SECRET
+						|| (isDouble && MoveCodec.ticket2(move) == Ticket.SECRET);
+				counter.leaf(MoveCodec.pieceIndex(move) == 0, isDouble, secret);
+			} else {
+				state.make(move);
+				perft(state, depth - 1, moves, counter);
+				state.unmake();
+			}
+		}
+		moves.truncate(start);
+	}
+
+	private static void checkDepth(int depth) {
+		if (depth < 1) throw new IllegalArgumentException("Depth must be at least 1: " + depth);
+	}
+
+	private static synchronized ImmutableValueGraph<Integer, ImmutableSet<Transport>> standardGraph() {
+		if (standardGraph == null) {
+			try {
+				standardGraph = ScotlandYard.standardGraph();
+			} catch (IOException e) { throw new UncheckedIOException("Unable to read game graph", e); }
+		}
+		return standardGraph;
+	}
+}
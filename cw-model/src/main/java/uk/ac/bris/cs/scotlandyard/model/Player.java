@@ -2,28 +2,58 @@ package uk.ac.bris.cs.scotlandyard.model;
 
 import com.google.common.collect.ImmutableMap;
 
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 
 import javax.annotation.Nonnull;
 
+import uk.ac.bris.cs.scotlandyard.model.Board.TicketBoard;
 import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
 
 /**
  * A POJO representing an immutable player of the ScotlandYard game.
  * Each player contains the {@link Piece} (coloured counter), {@link Ticket}s, and the location.
+ * <br>
+ * The tickets are kept packed into a {@code long} (see {@link PackedTickets}), along with a mask
+ * of the tickets the player was given a count for, so {@link #use(Ticket)} and {@link #give(Ticket)}
+ * don't copy a map. The map of {@link #tickets()} is only built when asked for.
  */
 public final class Player {
+	private static final Ticket[] TICKETS = Ticket.values();
+
 	private final Piece piece;
-	private final ImmutableMap<Ticket, Integer> tickets;
+	private final long packed;							// The ticket counts, see PackedTickets
+	private final int present;							// Bit ticket.ordinal() set for every ticket in the map
 	private final int location;
+	private volatile ImmutableMap<Ticket, Integer> tickets;	// Built on demand, all threads build equal maps
+	private volatile Optional<TicketBoard> ticketBoard;		// Built on demand, and kept by players at() other locations
 
+	/**
+	 * @param piece the piece
+	 * @param tickets the tickets, each count between 0 and {@value PackedTickets#MAX_COUNT}
+	 * @param location the location
+	 */
 	public Player(@Nonnull Piece piece,
 	              @Nonnull ImmutableMap<Ticket, Integer> tickets,
 	              int location) {
 		this.piece = Objects.requireNonNull(piece);
-		this.tickets = Objects.requireNonNull(tickets);
+		this.packed = PackedTickets.pack(Objects.requireNonNull(tickets));
+		int present = 0;
+		for (Ticket ticket : tickets.keySet()) present |= 1 << ticket.ordinal();
+		this.present = present;
 		this.location = location;
+		this.tickets = tickets;
+	}
+
+	private Player(Piece piece, long packed, int present, int location,
+	               ImmutableMap<Ticket, Integer> tickets, Optional<TicketBoard> ticketBoard) {
+		this.piece = piece;
+		this.packed = packed;
+		this.present = present;
+		this.location = location;
+		this.tickets = tickets;
+		this.ticketBoard = ticketBoard;
 	}
 	/**
 	 * @return the piece
@@ -40,7 +70,42 @@ public final class Player {
 	/**
 	 * @return the ticket
 	 */
-	@Nonnull public ImmutableMap<Ticket, Integer> tickets() { return tickets; }
+	@Nonnull public ImmutableMap<Ticket, Integer> tickets() {
+		ImmutableMap<Ticket, Integer> map = tickets;
+		if (map == null) {
+			ImmutableMap.Builder<Ticket, Integer> builder = ImmutableMap.builder();
+			for (Ticket ticket : TICKETS) {
+				if ((present & (1 << ticket.ordinal())) != 0) builder.put(ticket, PackedTickets.count(packed, ticket));
+			}
+			tickets = map = builder.build();
+		}
+		return map;
+	}
+	/**
+	 * @param ticket the ticket
+	 * @return the number of the given ticket the player has, 0 if none
+	 */
+	int count(@Nonnull Ticket ticket) { return PackedTickets.count(packed, ticket); }
+	/**
+	 * @return the ticket counts, packed as by {@link PackedTickets#pack(Map)}
+	 */
+	long packedTickets() { return packed; }
+	/**
+	 * @return a mask with bit {@code ticket.ordinal()} set for every ticket in the player's map, the
+	 * only ones {@link #give(Ticket)} adds to
+	 */
+	int presentTickets() { return present; }
+	/**
+	 * @return a ticket board of the player's tickets, the same one every time it's asked for
+	 */
+	@Nonnull Optional<TicketBoard> ticketBoard() {
+		Optional<TicketBoard> board = ticketBoard;
+		if (board == null) {
+			long counts = packed;
+			ticketBoard = board = Optional.of(ticket -> PackedTickets.count(counts, ticket));
+		}
+		return board;
+	}
 	/**
 	 * @return the location
 	 */
@@ -50,7 +115,7 @@ public final class Player {
 	 * @return whether the player has the given ticket
 	 */
 	public boolean has(@Nonnull Ticket ticket) {
-		return tickets.getOrDefault(Objects.requireNonNull(ticket), 0) != 0;
+		return PackedTickets.count(packed, Objects.requireNonNull(ticket)) != 0;
 	}
 	/**
 	 * @param ticket the ticket
@@ -58,7 +123,7 @@ public final class Player {
 	 * @return whether the player has &gt;= the required numbers of the given ticket
 	 */
 	public boolean hasAtLeast(@Nonnull Ticket ticket, int count) {
-		return tickets.getOrDefault(Objects.requireNonNull(ticket), 0) >= count;
+		return PackedTickets.count(packed, Objects.requireNonNull(ticket)) >= count;
 	}
 	/**
 	 * See {@link #give(Ticket)}
@@ -76,9 +141,9 @@ public final class Player {
 	 * @return a new player with one more of the given ticket
 	 */
 	@Nonnull public Player give(@Nonnull Ticket ticket) {
-		var map = new HashMap<>(tickets);
-		map.computeIfPresent(ticket, (t, n) -> n + 1);
-		return new Player(piece, ImmutableMap.copyOf(map), location);
+		// Only tickets the player was given a count for are added to, as with Map.computeIfPresent()
+		if ((present & (1 << ticket.ordinal())) == 0) return this;
+		return new Player(piece, PackedTickets.give(packed, ticket), present, location, null, null);
 	}
 	/**
 	 * See {@link #use(Ticket)}
@@ -98,22 +163,22 @@ public final class Player {
 	@Nonnull public Player use(@Nonnull Ticket ticket) {
 		if (!has(ticket))
 			throw new IllegalArgumentException("No " + ticket + " remaining");
-		var map = new HashMap<>(tickets);
-		map.computeIfPresent(ticket, (t, n) -> n - 1);
-		return new Player(piece, ImmutableMap.copyOf(map), location);
+		return new Player(piece, PackedTickets.use(packed, ticket), present, location, null, null);
 	}
 	/**
 	 * @param newLocation the location
 	 * @return a new player at the given location
 	 */
-	@Nonnull public Player at(int newLocation) { return new Player(piece, tickets, newLocation); }
+	@Nonnull public Player at(int newLocation) { return new Player(piece, packed, present, newLocation, tickets, ticketBoard); }
 	@Override public boolean equals(Object o) {
 		if (this == o) return true;
 		if (o == null || getClass() != o.getClass()) return false;
 		Player that = (Player) o;
 		return location == that.location && piece == that.piece &&
-				Objects.equals(tickets, that.tickets);
+				packed == that.packed && present == that.present;
+	}
+	@Override public int hashCode() {
+		return 31 * (31 * (31 * piece.hashCode() + Long.hashCode(packed)) + present) + location;
 	}
-	@Override public int hashCode() { return Objects.hash(piece, tickets, location); }
-	@Override public String toString() { return piece + "@" + location + "(" + tickets + ")"; }
+	@Override public String toString() { return piece + "@" + location + "(" + tickets() + ")"; }
 }
@@ -0,0 +1,655 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.function.LongToIntFunction;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * A mutable game position for search code, which plays moves with {@link #make(long)} and takes
+ * them back with {@link #unmake()} instead of creating a new state per move.
+ * <br>
+ * Moves are encoded by {@link MoveCodec}. The legal moves and winners are the same as those of the
+ * states made by {@link MyGameStateFactory}, and so is the {@link #zobristKey()}, which is kept up
+ * to date on every make and unmake. Making and unmaking moves doesn't allocate once the undo stack
+ * has grown to the depth of the search.
+ * <br>
+ * A search state is also a {@link Board}, so it can be handed to code that scores boards. The
+ * board is a live view: the ticket boards it returns change as moves are made. A search state is
+ * not thread safe, every thread searching needs its own {@link #copy()}.
+ */
+public final class SearchState implements Board {
+	// Bitmask of the remaining players when it's Mr X's turn
+	private static final int MRX_ONLY = 1;
+	private static final int HIDDEN = -1;
+	private static final Ticket[] TICKETS = Ticket.values();
+
+	private final GameSetup setup;
+	private final CompiledGraph graph;
+	private final Piece[] pieces;						// Player index -> piece, Mr X is player 0
+	private final int[] indices;						// MoveCodec piece index -> player index, or -1
+	private final ImmutableSet<Piece> players;
+	private final ImmutableSet<Piece> detectives;
+	private final ImmutableSet<Piece> mrX;
+	private final ImmutableList<Optional<TicketBoard>> ticketBoards;	// Player index -> live view of their tickets
+
+	private final int[] locations;						// Player index -> station
+	private final int[][] tickets;						// Player index -> ticket ordinal -> count
+	private final int[] present;						// Player index -> mask of the tickets in their map, see Player.give()
+	private final boolean[] occupied;					// Station -> whether a detective is standing on it
+	private final int[] logTickets;						// Round -> ticket ordinal Mr X used
+	private final int[] logLocations;					// Round -> station Mr X revealed, or HIDDEN
+	private int round;									// Number of moves in Mr X's travel log
+	private int remaining;								// Bit i is set if player i can still move this round
+	private int movable;								// Bit i is set if detective i has a move, updated by make()
+	private long key;
+
+	// The undo stack, one entry per move made
+	private long[] madeMoves = new long[32];
+	private int[] madeRemaining = new int[32];			// The remaining players before the move
+	private int[] madeMovable = new int[32];			// The detectives who could move before the move
+	private long[] madeKeys = new long[32];				// The key before the move
+	private int depth;
+
+	// Depth -> canonical keys of the rounds generated there by detectiveRounds(..., true), reused by every call at the depth
+	private KeySet[] roundKeys = new KeySet[0];
+
+	private SearchState(GameSetup setup, CompiledGraph graph, Piece[] pieces,
+	                    int[] locations, int[][] tickets, int[] present, boolean[] occupied,
+	                    int[] logTickets, int[] logLocations, int round, int remaining, long key) {
+		this.setup = setup;
+		this.graph = graph;
+		this.pieces = pieces;
+		this.indices = new int[Detective.values().length + 1];
+		Arrays.fill(indices, -1);
+		for (int i = 0; i < pieces.length; i++) indices[MoveCodec.pieceIndex(pieces[i])] = i;
+		this.players = ImmutableSet.copyOf(pieces);
+		this.detectives = ImmutableSet.copyOf(Arrays.asList(pieces).subList(1, pieces.length));
+		this.mrX = ImmutableSet.of(pieces[0]);
+		this.locations = locations;
+		this.tickets = tickets;
+		this.present = present;
+		ImmutableList.Builder<Optional<TicketBoard>> ticketBoards = ImmutableList.builderWithExpectedSize(pieces.length);
+		for (int[] counts : tickets) ticketBoards.add(Optional.of(ticket -> counts[ticket.ordinal()]));
+		this.ticketBoards = ticketBoards.build();
+		this.occupied = occupied;
+		this.logTickets = logTickets;
+		this.logLocations = logLocations;
+		this.round = round;
+		this.remaining = remaining;
+		this.key = key;
+		for (int i = 1; i < pieces.length; i++) {
+			if (hasMove(i)) movable |= 1 << i;
+		}
+	}
+
+	/**
+	 * @param board the board, on Mr X's turn
+	 * @return a search state of the board's position, taking Mr X's location from his available moves
+	 * @throws IllegalArgumentException if Mr X has no available moves to take his location from
+	 */
+	@Nonnull public static SearchState of(@Nonnull Board board) {
+		for (Move move : board.getAvailableMoves()) {
+			if (move.commencedBy().isMrX()) return of(board, move.source());
+		}
+		throw new IllegalArgumentException("Mr X's location is only known from his available moves");
+	}
+
+	/**
+	 * @param board the board
+	 * @param mrXLocation the station Mr X is standing on, which the board doesn't reveal
+	 * @return a search state of the board's position
+	 */
+	@Nonnull public static SearchState of(@Nonnull Board board, int mrXLocation) {
+		GameSetup setup = board.getSetup();
+		CompiledGraph graph = SetupRegistry.graph(setup);
+
+		// Mr X first, then the detectives in the board's order
+		Piece mrXPiece = board.getPlayers().stream().filter(Piece::isMrX).findFirst()
+				.orElseThrow(() -> new IllegalArgumentException("No Mr X!"));
+		ImmutableList<Piece> order = ImmutableList.<Piece>builder().add(mrXPiece)
+				.addAll(board.getPlayers().stream().filter(Piece::isDetective).iterator()).build();
+
+		Piece[] pieces = order.toArray(new Piece[0]);
+		int[] locations = new int[pieces.length];
+		int[][] tickets = new int[pieces.length][TICKETS.length];
+		int[] present = new int[pieces.length];
+		boolean[] occupied = new boolean[graph.capacity()];
+		locations[0] = checkStation(graph, mrXLocation);
+		for (int i = 0; i < pieces.length; i++) {
+			TicketBoard ticketBoard = board.getPlayerTickets(pieces[i]).orElseThrow();
+			for (Ticket ticket : TICKETS) tickets[i][ticket.ordinal()] = ticketBoard.getCount(ticket);
+			present[i] = presentTickets(board, pieces[i]);
+			if (i > 0) {
+				locations[i] = checkStation(graph, board.getDetectiveLocation((Detective) pieces[i]).orElseThrow());
+				occupied[locations[i]] = true;
+			}
+		}
+
+		ImmutableList<LogEntry> log = board.getMrXTravelLog();
+		int[] logTickets = new int[setup.moves.size()];
+		int[] logLocations = new int[setup.moves.size()];
+		for (int i = 0; i < log.size(); i++) {
+			logTickets[i] = log.get(i).ticket().ordinal();
+			logLocations[i] = log.get(i).location().orElse(HIDDEN);
+		}
+
+		// The players still to move are the ones with available moves, or just Mr X at the start of a round
+		int remaining = 0;
+		for (Move move : board.getAvailableMoves()) remaining |= 1 << order.indexOf(move.commencedBy());
+		if (remaining == 0) remaining = MRX_ONLY;
+
+		SearchState state = new SearchState(setup, graph, pieces, locations, tickets, present, occupied,
+				logTickets, logLocations, log.size(), remaining, 0);
+		state.key = state.computeKey();
+		return state;
+	}
+
+	/**
+	 * @return an independent copy of the position, with an empty undo stack
+	 */
+	@Nonnull public SearchState copy() {
+		int[][] ticketsCopy = new int[tickets.length][];
+		for (int i = 0; i < tickets.length; i++) ticketsCopy[i] = tickets[i].clone();
+		return new SearchState(setup, graph, pieces, locations.clone(), ticketsCopy, present, occupied.clone(),
+				logTickets.clone(), logLocations.clone(), round, remaining, key);
+	}
+
+
+	// --------------- Search ---------------
+
+	/**
+	 * Appends the encoded form of every move in {@link #getAvailableMoves()} to the list
+	 *
+	 * @param moves the list to add the moves to
+	 */
+	public void generateMoves(@Nonnull MoveList moves) {
+		if (isGameOver()) return;
+		addMoves(moves);
+	}
+
+	/**
+	 * Makes a move. Only the player, their location and their (first) ticket are checked, the move is
+	 * expected to come from {@link #generateMoves(MoveList)}.
+	 *
+	 * @param move the encoded move
+	 * @throws IllegalArgumentException if Mr X has been caught, or the move can't be made by a player
+	 * who is still to move this round
+	 */
+	public void make(long move) {
+		int player = indices[MoveCodec.pieceIndex(move)];
+		if (player < 0 || (remaining & (1 << player)) == 0 || locations[player] != MoveCodec.source(move)
+				|| tickets[player][MoveCodec.ticket1(move).ordinal()] == 0 || occupied[locations[0]])
+			throw new IllegalArgumentException("Illegal move being made: " + MoveCodec.toString(move));
+
+		push(move);
+		int oldRemaining = remaining;
+		if (player == 0) {
+			// Mr X moves (twice for a double move) and hands over to the detectives who are able to move
+			moveMrX(MoveCodec.ticket1(move), MoveCodec.destination1(move));
+			if (MoveCodec.isDouble(move)) {
+				moveMrX(MoveCodec.ticket2(move), MoveCodec.destination2(move));
+				useTicket(0, Ticket.DOUBLE.ordinal());
+			}
+			// (Mr X doesn't block anyone, so the same detectives can move)
+			remaining = movable == 0 ? MRX_ONLY : movable;
+		} else {
+			// A detective gives the used ticket to Mr X, and is done for this round
+			int ticket = MoveCodec.ticket1(move).ordinal();
+			int destination = MoveCodec.destination1(move);
+			occupied[locations[player]] = false;
+			occupied[destination] = true;
+			setLocation(player, destination);
+			useTicket(player, ticket);
+			// (only if it's in Mr X's map, as with Player.give())
+			if ((present[0] & (1 << ticket)) != 0) giveTicket(0, ticket);
+			updateMovable(player, MoveCodec.source(move), destination);
+			// Detectives who have just been blocked in are skipped
+			remaining = remaining & ~(1 << player) & movable;
+			if (remaining == 0) remaining = MRX_ONLY;
+		}
+		key ^= remainingKey(oldRemaining) ^ remainingKey(remaining);
+	}
+
+	/**
+	 * Takes back the last move made
+	 *
+	 * @throws IllegalStateException if no move has been made
+	 */
+	public void unmake() {
+		if (depth == 0) throw new IllegalStateException("No move to unmake");
+		depth--;
+		long move = madeMoves[depth];
+		int player = indices[MoveCodec.pieceIndex(move)];
+		if (player == 0) {
+			if (MoveCodec.isDouble(move)) {
+				tickets[0][Ticket.DOUBLE.ordinal()]++;
+				tickets[0][MoveCodec.ticket2(move).ordinal()]++;
+				round--;
+			}
+			tickets[0][MoveCodec.ticket1(move).ordinal()]++;
+			round--;
+			locations[0] = MoveCodec.source(move);
+		} else {
+			int ticket = MoveCodec.ticket1(move).ordinal();
+			occupied[MoveCodec.destination1(move)] = false;
+			occupied[MoveCodec.source(move)] = true;
+			locations[player] = MoveCodec.source(move);
+			tickets[player][ticket]++;
+			if ((present[0] & (1 << ticket)) != 0) tickets[0][ticket]--;
+		}
+		remaining = madeRemaining[depth];
+		movable = madeMovable[depth];
+		key = madeKeys[depth];
+	}
+
+	/**
+	 * @return every round of the detectives still to move, see {@link #detectiveRounds(LongToIntFunction, int)}
+	 */
+	@Nonnull public DetectiveRounds detectiveRounds() { return detectiveRounds(null, Integer.MAX_VALUE, false); }
+
+	/**
+	 * Generates the rounds of the detectives still to move, each one the moves to make with
+	 * {@link #makeRound(long[])}. The generator works on its own copy of the position, so moves can be
+	 * made and unmade between rounds.
+	 * <br>
+	 * Distinct rounds are found by playing each one on this state and taking it back again, so the
+	 * state has to be back in the position the rounds were generated from whenever the next round is
+	 * asked for.
+	 *
+	 * @param score scores a detective's move, higher first, or null to keep the order of
+	 * {@link #generateMoves(MoveList)}
+	 * @param width the number of each detective's best moves to keep, {@link Integer#MAX_VALUE} for all
+	 * @param distinct whether to skip rounds ending in the same position as an earlier round up to a
+	 * relabelling of the detectives, see {@link #canonicalKey()}
+	 * @return the rounds, none if it's Mr X's turn or the game is over
+	 * @throws IllegalStateException (from the rounds) if the next distinct round is asked for in
+	 * another position
+	 */
+	@Nonnull public DetectiveRounds detectiveRounds(@Nullable LongToIntFunction score, int width, boolean distinct) {
+		int toMove = remaining == MRX_ONLY || isGameOver() ? 0 : remaining;
+		Piece[] movers = new Piece[Integer.bitCount(toMove)];
+		int[] sources = new int[movers.length];
+		int[] available = new int[movers.length];
+		for (int i = 1, level = 0; i < pieces.length; i++) {
+			if ((toMove & (1 << i)) == 0) continue;
+			movers[level] = pieces[i];
+			sources[level] = locations[i];
+			available[level++] = available(i, -1);
+		}
+		Predicate<long[]> filter = null;
+		if (distinct) {
+			// Plays each round to find the canonical key of the position it ends in. The rounds of a deeper
+			// position are generated while these are still being searched, so each depth has its own set
+			int generated = depth;
+			if (roundKeys.length <= generated) roundKeys = Arrays.copyOf(roundKeys, Math.max(generated + 1, roundKeys.length * 2));
+			if (roundKeys[generated] == null) roundKeys[generated] = new KeySet();
+			KeySet seen = roundKeys[generated];
+			seen.clear();
+			filter = round -> {
+				if (depth != generated) throw new IllegalStateException("Not in the position the rounds were generated from");
+				makeRound(round);
+				long canonical = canonicalKey();
+				unmakeRound(round);
+				return seen.add(canonical);
+			};
+		}
+		return new DetectiveRounds(graph, movers, sources, available, occupied.clone(), locations[0], score, width, filter);
+	}
+
+	/**
+	 * Makes every move of a detectives' round, in order
+	 *
+	 * @param round the moves of a round from {@link #detectiveRounds()}
+	 * @throws IllegalArgumentException if one of the moves can't be made, see {@link #make(long)}
+	 */
+	public void makeRound(@Nonnull long[] round) {
+		for (long move : round) make(move);
+	}
+
+	/**
+	 * Takes back the moves of the last round made
+	 *
+	 * @param round the round given to {@link #makeRound(long[])}
+	 * @throws IllegalStateException if fewer moves have been made than the round has
+	 */
+	public void unmakeRound(@Nonnull long[] round) {
+		if (depth < round.length) throw new IllegalStateException("No round to unmake");
+		for (int i = 0; i < round.length; i++) unmake();
+	}
+
+	/**
+	 * @param piece a player
+	 * @return a mask with bit {@code ticket.ordinal()} set for every ticket in the player's ticket map,
+	 * the only ones Mr X is given, as in {@link EngineGameState#presentTickets(Piece)}, or 0 if the
+	 * piece isn't playing
+	 */
+	public int presentTickets(@Nonnull Piece piece) {
+		for (int i = 0; i < pieces.length; i++) {
+			if (pieces[i] == piece) return present[i];
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the number of moves made that can be taken back with {@link #unmake()}
+	 */
+	public int depth() { return depth; }
+
+	/**
+	 * @return whether the game is over, i.e. {@link #getWinner()} isn't empty
+	 */
+	public boolean isGameOver() { return winner() != null; }
+
+	/**
+	 * @return the station Mr X is standing on
+	 */
+	public int mrXLocation() { return locations[0]; }
+
+	/**
+	 * @return whether it's Mr X's turn
+	 */
+	public boolean isMrXTurn() { return remaining == MRX_ONLY; }
+
+	/**
+	 * @return the key of the position with the detectives relabelled in the canonical order of
+	 * {@link DetectiveSymmetry}, equal for positions that only differ by which detective is which
+	 */
+	public long canonicalKey() {
+		return DetectiveSymmetry.canonicalKey(key, pieces, locations, tickets, remaining, 1);
+	}
+
+	/**
+	 * @return the number of moves in Mr X's travel log
+	 */
+	public int round() { return round; }
+
+	/**
+	 * @return the {@link Zobrist} key of the position, the same as {@link EngineGameState#zobristKey()}
+	 * of the same position
+	 */
+	public long zobristKey() { return key; }
+	// ------------------------------
+
+
+	// --------------- Board ---------------
+	@Override @Nonnull
+	public GameSetup getSetup() {
+		return setup;
+	}
+
+	@Override @Nonnull
+	public ImmutableSet<Piece> getPlayers() {
+		return players;
+	}
+
+	@Override @Nonnull
+	public Optional<Integer> getDetectiveLocation(Detective detective) {
+		int player = indices[MoveCodec.pieceIndex(detective)];
+		return player > 0 ? Optional.of(locations[player]) : Optional.empty();
+	}
+
+	@Override @Nonnull
+	public Optional<TicketBoard> getPlayerTickets(Piece piece) {
+		int player = indices[MoveCodec.pieceIndex(piece)];
+		// The boards read the current counts, so they are made once and follow make() and unmake()
+		return player < 0 ? Optional.empty() : ticketBoards.get(player);
+	}
+
+	@Override @Nonnull
+	public ImmutableList<LogEntry> getMrXTravelLog() {
+		ImmutableList.Builder<LogEntry> builder = ImmutableList.builderWithExpectedSize(round);
+		for (int i = 0; i < round; i++) {
+			Ticket ticket = TICKETS[logTickets[i]];
+			builder.add(logLocations[i] == HIDDEN ? LogEntry.hidden(ticket) : LogEntry.reveal(ticket, logLocations[i]));
+		}
+		return builder.build();
+	}
+
+	@Override @Nonnull
+	public ImmutableSet<Piece> getWinner() {
+		ImmutableSet<Piece> winner = winner();
+		return winner == null ? ImmutableSet.of() : winner;
+	}
+
+	@Override @Nonnull
+	public ImmutableSet<Move> getAvailableMoves() {
+		MoveList moves = new MoveList();
+		generateMoves(moves);
+		return ImmutableSet.copyOf(moves.toMoves());
+	}
+	// ------------------------------
+
+
+	// --------------- Helper Methods ---------------
+
+	// The winners, or null if the game isn't over. The same checks as MyGameState.computeWinner()
+	private ImmutableSet<Piece> winner() {
+		if (occupied[locations[0]]) return detectives;
+		if (remaining == MRX_ONLY) {
+			if (!hasMove(0)) return detectives;
+			if (round == setup.moves.size()) return mrX;
+			if (movable == 0) return mrX;
+		}
+		return null;
+	}
+
+	// Adds the moves of the remaining players, regardless of whether the game is over
+	private void addMoves(MoveList moves) {
+		if (remaining == MRX_ONLY) {
+			addSingleMoves(moves, 0);
+			if (tickets[0][Ticket.DOUBLE.ordinal()] > 0 && setup.moves.size() - round >= 2) addDoubleMoves(moves);
+		} else {
+			for (int i = 1; i < pieces.length; i++) {
+				if ((remaining & (1 << i)) != 0) addSingleMoves(moves, i);
+			}
+		}
+	}
+
+	// Adds the player's single moves
+	private void addSingleMoves(MoveList moves, int player) {
+		int source = locations[player];
+		int available = available(player, -1);
+		for (int edge = graph.firstEdge(source); edge < graph.endEdge(source); edge++) {
+			int destination = graph.neighbour(edge);
+			if (occupied[destination]) continue;
+			// Mr X can take a secret ticket along any edge
+			int usable = (graph.tickets(edge) | CompiledGraph.bit(Ticket.SECRET)) & available;
+			for (Ticket ticket : TICKETS) {
+				if ((usable & CompiledGraph.bit(ticket)) != 0)
+					moves.add(MoveCodec.single(pieces[player], source, ticket, destination));
+			}
+		}
+	}
+
+	// Adds Mr X's double moves, along the graph's precomputed two-hop paths
+	private void addDoubleMoves(MoveList moves) {
+		int source = locations[0];
+		int available = available(0, -1);
+		for (int path = graph.firstPath(source); path < graph.endPath(source); path++) {
+			int firstEdge = graph.pathFirstEdge(path), secondEdge = graph.pathSecondEdge(path);
+			int middle = graph.neighbour(firstEdge), destination = graph.neighbour(secondEdge);
+			if (occupied[middle] || occupied[destination]) continue;
+			int firstTickets = (graph.tickets(firstEdge) | CompiledGraph.bit(Ticket.SECRET)) & available;
+			for (Ticket first : TICKETS) {
+				if ((firstTickets & CompiledGraph.bit(first)) == 0) continue;
+				int secondTickets = (graph.tickets(secondEdge) | CompiledGraph.bit(Ticket.SECRET)) & available(0, first.ordinal());
+				for (Ticket second : TICKETS) {
+					if ((secondTickets & CompiledGraph.bit(second)) != 0)
+						moves.add(MoveCodec.doubleMove(pieces[0], source, first, middle, second, destination));
+				}
+			}
+		}
+	}
+
+	// Bitmask of the tickets the player can move with, with one ticket of type 'spent' already used (or -1)
+	private int available(int player, int spent) {
+		int available = 0;
+		for (int ticket = 0; ticket < TICKETS.length; ticket++) {
+			if (tickets[player][ticket] - (ticket == spent ? 1 : 0) > 0) available |= 1 << ticket;
+		}
+		available &= ~CompiledGraph.bit(Ticket.DOUBLE);
+		if (player != 0) available &= ~CompiledGraph.bit(Ticket.SECRET);
+		return available;
+	}
+
+	// Whether the player has at least one single move
+	private boolean hasMove(int player) {
+		int source = locations[player];
+		int available = available(player, -1);
+		for (int edge = graph.firstEdge(source); edge < graph.endEdge(source); edge++) {
+			int usable = (graph.tickets(edge) | CompiledGraph.bit(Ticket.SECRET)) & available;
+			if (usable != 0 && !occupied[graph.neighbour(edge)]) return true;
+		}
+		return false;
+	}
+
+	// Updates which detectives can move after the player moved from source to destination: a detective who
+	// could move can only be blocked in by the destination being taken, and one who couldn't can only be
+	// freed by the source being left (the player's own tickets changed, so they are always checked)
+	private void updateMovable(int player, int source, int destination) {
+		for (int i = 1; i < pieces.length; i++) {
+			boolean before = (movable & (1 << i)) != 0;
+			if (i == player || isNeighbour(locations[i], before ? destination : source)) {
+				if (hasMove(i)) movable |= 1 << i;
+				else movable &= ~(1 << i);
+			}
+		}
+	}
+
+	private boolean isNeighbour(int station, int other) {
+		for (int edge = graph.firstEdge(station); edge < graph.endEdge(station); edge++) {
+			if (graph.neighbour(edge) == other) return true;
+		}
+		return false;
+	}
+
+
+	private void moveMrX(Ticket ticket, int destination) {
+		logTickets[round] = ticket.ordinal();
+		logLocations[round] = setup.moves.get(round) ? destination : HIDDEN;
+		key ^= Zobrist.round(round) ^ Zobrist.round(round + 1);
+		round++;
+		setLocation(0, destination);
+		useTicket(0, ticket.ordinal());
+	}
+
+	private void setLocation(int player, int station) {
+		key ^= Zobrist.location(pieces[player], locations[player]) ^ Zobrist.location(pieces[player], station);
+		locations[player] = station;
+	}
+
+	private void useTicket(int player, int ticket) {
+		key ^= ticketKey(player, ticket);
+		tickets[player][ticket]--;
+		key ^= ticketKey(player, ticket);
+	}
+
+	private void giveTicket(int player, int ticket) {
+		key ^= ticketKey(player, ticket);
+		tickets[player][ticket]++;
+		key ^= ticketKey(player, ticket);
+	}
+
+	// The tickets in the player's map, if the board tells (every ticket otherwise)
+	private static int presentTickets(Board board, Piece piece) {
+		if (board instanceof EngineGameState) return ((EngineGameState) board).presentTickets(piece);
+		if (board instanceof SearchState) return ((SearchState) board).presentTickets(piece);
+		return (1 << TICKETS.length) - 1;
+	}
+
+	private long ticketKey(int player, int ticket) {
+		return Zobrist.tickets(pieces[player], TICKETS[ticket], tickets[player][ticket]);
+	}
+
+	private long remainingKey(int mask) {
+		long remainingKey = 0;
+		for (int i = 0; i < pieces.length; i++) {
+			if ((mask & (1 << i)) != 0) remainingKey ^= Zobrist.remaining(pieces[i]);
+		}
+		return remainingKey;
+	}
+
+	private long computeKey() {
+		long computed = remainingKey(remaining) ^ Zobrist.round(round);
+		for (int i = 0; i < pieces.length; i++) {
+			computed ^= Zobrist.location(pieces[i], locations[i]);
+			for (int ticket = 0; ticket < TICKETS.length; ticket++) computed ^= ticketKey(i, ticket);
+		}
+		return computed;
+	}
+
+	private void push(long move) {
+		if (depth == madeMoves.length) {
+			madeMoves = Arrays.copyOf(madeMoves, depth * 2);
+			madeRemaining = Arrays.copyOf(madeRemaining, depth * 2);
+			madeMovable = Arrays.copyOf(madeMovable, depth * 2);
+			madeKeys = Arrays.copyOf(madeKeys, depth * 2);
+		}
+		madeMoves[depth] = move;
+		madeRemaining[depth] = remaining;
+		madeMovable[depth] = movable;
+		madeKeys[depth] = key;
+		depth++;
+	}
+
+	private static int checkStation(CompiledGraph graph, int station) {
+		if (!graph.contains(station)) throw new IllegalArgumentException("Not a station on the graph: " + station);
+		return station;
+	}
+
+	// Open addressing set of keys, cleared in constant time by starting a new generation: a slot only holds a key if its
+	// stamp is the current generation
+	private static final class KeySet {
+		private long[] keys = new long[64];
+		private int[] stamps = new int[64];
+		private int generation = 1;
+		private int size;
+
+		void clear() {
+			size = 0;
+			if (++generation == 0) {
+				Arrays.fill(stamps, 0);
+				generation = 1;
+			}
+		}
+
+		// Returns whether the key wasn't in the set yet
+		boolean add(long key) {
+			if (2 * (size + 1) > keys.length) grow();
+			int mask = keys.length - 1;
+			for (int slot = (int) (key ^ key >>> 32) & mask; ; slot = (slot + 1) & mask) {
+				if (stamps[slot] != generation) {
+					keys[slot] = key;
+					stamps[slot] = generation;
+					size++;
+					return true;
+				}
+				if (keys[slot] == key) return false;
+			}
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldStamps = stamps;
+			int oldGeneration = generation;
+			keys = new long[oldKeys.length * 2];
+			stamps = new int[oldKeys.length * 2];
+			generation = 1;
+			size = 0;
+			for (int slot = 0; slot < oldKeys.length; slot++) {
+				if (oldStamps[slot] == oldGeneration) add(oldKeys[slot]);
+			}
+		}
+	}
+	// ------------------------------
+}
@@ -0,0 +1,145 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+import com.google.common.graph.EndpointPair;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+/**
+ * The data derived from a {@link GameSetup}, computed once and shared by every game, AI and thread
+ * of the JVM that uses the setup.
+ * <br>
+ * Setups are looked up by identity, so finding the data of a setup doesn't hash its whole graph
+ * the way {@link GameSetup#hashCode()} does. The first time a setup object is seen its
+ * {@link #fingerprint(GameSetup)} is computed, and equal setups (different objects with the same
+ * graph and reveal rounds) share the same data. Both lookups only hold the setups weakly: once no
+ * game uses a setup any more, its data can be garbage collected.
+ * <br>
+ * Besides the data kept here, any structure can be derived from a setup through a {@link Derived}
+ * key, which is computed once per setup.
+ */
+public final class SetupRegistry {
+	// Setup object -> its data, by identity (weak keys are compared with ==)
+	private static final ConcurrentMap<GameSetup, Entry> SETUPS = new MapMaker().weakKeys().makeMap();
+	// Fingerprint -> the data of the setups with that fingerprint, for as long as one of them is in SETUPS
+	private static final ConcurrentMap<Long, Entry> FINGERPRINTS = new MapMaker().weakValues().makeMap();
+
+	private SetupRegistry() {}
+
+	/**
+	 * A structure derived from a setup. The key is compared by identity, so it should be a constant.
+	 * <br>
+	 * The structure mustn't hold on to the setup (or its graph), which would stop the setup from ever
+	 * being collected.
+	 *
+	 * @param <T> the type of the structure
+	 */
+	@FunctionalInterface
+	public interface Derived<T> {
+		/**
+		 * @param setup the setup
+		 * @return the structure derived from the setup, which must be safe to share between threads
+		 */
+		@Nonnull T compute(@Nonnull GameSetup setup);
+	}
+
+	private static final class Entry {
+		private final long fingerprint;
+		private final CompiledGraph graph;
+		private final ImmutableList<Integer> revealRounds;
+		private final ConcurrentMap<Derived<?>, Object> derived = new ConcurrentHashMap<>();
+
+		private Entry(GameSetup setup, long fingerprint) {
+			this.fingerprint = fingerprint;
+			this.graph = CompiledGraph.compile(setup);
+			ImmutableList.Builder<Integer> revealRounds = ImmutableList.builder();
+			for (int round = 0; round < setup.moves.size(); round++) {
+				if (setup.moves.get(round)) revealRounds.add(round);
+			}
+			this.revealRounds = revealRounds.build();
+		}
+	}
+
+	/**
+	 * @param setup the game setup
+	 * @return the compiled graph of the setup, the same object for equal setups
+	 */
+	@Nonnull public static CompiledGraph graph(@Nonnull GameSetup setup) { return entry(setup).graph; }
+
+	/**
+	 * @param setup the game setup
+	 * @return a hash of the setup's graph (stations, edges and their transports) and reveal rounds,
+	 * which stays the same between runs and JVMs
+	 */
+	public static long fingerprint(@Nonnull GameSetup setup) { return entry(setup).fingerprint; }
+
+	/**
+	 * @param setup the game setup
+	 * @return the rounds (indices into {@link GameSetup#moves}) in which Mr X reveals his location,
+	 * in ascending order
+	 */
+	@Nonnull public static ImmutableList<Integer> revealRounds(@Nonnull GameSetup setup) { return entry(setup).revealRounds; }
+
+	/**
+	 * @param setup the game setup
+	 * @param derived the key of the structure
+	 * @param <T> the type of the structure
+	 * @return the structure derived from the setup, computed on first request and shared by equal setups
+	 */
+	@Nonnull public static <T> T get(@Nonnull GameSetup setup, @Nonnull Derived<T> derived) {
+		Entry entry = entry(setup);
+		@SuppressWarnings("unchecked") T value = (T) entry.derived.get(derived);
+		if (value != null) return value;
+		// Computed outside the map, so a structure can be derived from another one of the same setup
+		// (racing threads may both compute it, only one of the values is kept)
+		value = derived.compute(setup);
+		@SuppressWarnings("unchecked") T previous = (T) entry.derived.putIfAbsent(derived, value);
+		return previous != null ? previous : value;
+	}
+
+	private static Entry entry(GameSetup setup) {
+		Entry entry = SETUPS.get(setup);
+		if (entry != null) return entry;
+		long fingerprint = computeFingerprint(setup);
+		entry = FINGERPRINTS.computeIfAbsent(fingerprint, key -> new Entry(setup, key));
+		Entry previous = SETUPS.putIfAbsent(setup, entry);
+		return previous != null ? previous : entry;
+	}
+
+	private static long computeFingerprint(GameSetup setup) {
+		Hasher hasher = Hashing.farmHashFingerprint64().newHasher();
+		List<Integer> stations = new ArrayList<>(setup.graph.nodes());
+		stations.sort(null);
+		hasher.putInt(stations.size());
+		for (int station : stations) hasher.putInt(station);
+
+		// The edges in a fixed order, whatever order the graph was built in
+		List<long[]> edges = new ArrayList<>();
+		for (EndpointPair<Integer> edge : setup.graph.edges()) {
+			int a = Math.min(edge.nodeU(), edge.nodeV()), b = Math.max(edge.nodeU(), edge.nodeV());
+			long transports = 0;
+			for (Transport transport : setup.graph.edgeValueOrDefault(edge.nodeU(), edge.nodeV(), ImmutableSet.of()))
+				transports |= 1L << transport.ordinal();
+			edges.add(new long[]{a, b, transports});
+		}
+		edges.sort((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0])
+				: x[1] != y[1] ? Long.compare(x[1], y[1]) : Long.compare(x[2], y[2]));
+		hasher.putInt(edges.size());
+		for (long[] edge : edges) hasher.putInt((int) edge[0]).putInt((int) edge[1]).putLong(edge[2]);
+
+		hasher.putInt(setup.moves.size());
+		for (boolean reveal : setup.moves) hasher.putBoolean(reveal);
+		return hasher.hash().asLong();
+	}
+}
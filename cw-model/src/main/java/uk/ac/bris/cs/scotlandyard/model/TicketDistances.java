@@ -0,0 +1,156 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * The fewest rounds a detective needs to get from one station to another with the taxi, bus and
+ * underground tickets they have left.
+ * <br>
+ * Unlike the {@link DistanceTable}, which only knows which types of ticket a detective holds, this
+ * takes the counts into account: a detective with a single underground ticket can't take the
+ * underground twice. The distances from a station are found by a breadth first search over the
+ * states (station, tickets left), and kept in a bounded least recently used cache, keyed by the
+ * station and the tickets. A search from the same detective reaches many positions where only
+ * Mr X has moved, so most lookups are answered by the cache.
+ * <br>
+ * Distances are exact up to {@link #HORIZON} rounds. Further ones are only bounded from below, by
+ * the larger of {@code HORIZON + 1} and the distance ignoring the counts. Ferries aren't used, as
+ * they need a secret ticket.
+ * <br>
+ * The oracle isn't thread safe, each search keeps its own.
+ */
+public final class TicketDistances {
+	/**
+	 * Returned for stations that can't be reached with the tickets
+	 */
+	public static final int UNREACHABLE = DistanceTable.UNREACHABLE;
+	/**
+	 * The longest distance worked out exactly
+	 */
+	public static final int HORIZON = 10;
+
+	private static final byte UNREACHABLE_BYTE = (byte) 0xFF;
+	private static final byte BEYOND_BYTE = (byte) 0xFE;		// Further than HORIZON
+	private static final int TAXI = CompiledGraph.bit(Ticket.TAXI);
+	private static final int BUS = CompiledGraph.bit(Ticket.BUS);
+	private static final int UNDERGROUND = CompiledGraph.bit(Ticket.UNDERGROUND);
+
+	private final CompiledGraph graph;
+	private final DistanceTable table;
+	private final Map<Long, byte[]> cache;
+
+	/**
+	 * @param setup the game setup
+	 * @param entries how many stations' distances to keep, each takes a byte per station
+	 * @throws IllegalArgumentException if entries isn't positive
+	 */
+	public TicketDistances(@Nonnull GameSetup setup, int entries) {
+		if (entries <= 0) throw new IllegalArgumentException("Entries must be positive: " + entries);
+		this.graph = SetupRegistry.graph(setup);
+		this.table = DistanceTable.of(setup);
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) { return size() > entries; }
+		};
+	}
+
+	/**
+	 * @param from the detective's station
+	 * @param to a station
+	 * @param taxi the detective's taxi tickets
+	 * @param bus the detective's bus tickets
+	 * @param underground the detective's underground tickets
+	 * @return the fewest rounds from one station to the other (a lower bound past {@link #HORIZON}),
+	 * or {@link #UNREACHABLE}
+	 */
+	public int distance(int from, int to, int taxi, int bus, int underground) {
+		if (!graph.contains(from) || !graph.contains(to)) return UNREACHABLE;
+		// A path of HORIZON rounds can't use more tickets than that, so higher counts give the same distances
+		taxi = Math.max(0, Math.min(taxi, HORIZON));
+		bus = Math.max(0, Math.min(bus, HORIZON));
+		underground = Math.max(0, Math.min(underground, HORIZON));
+		long key = (long) from << 32 | taxi << 16 | bus << 8 | underground;
+		byte[] distances = cache.get(key);
+		if (distances == null) {
+			distances = search(from, taxi, bus, underground);
+			cache.put(key, distances);
+		}
+		byte distance = distances[to];
+		if (distance == UNREACHABLE_BYTE) return UNREACHABLE;
+		if (distance == BEYOND_BYTE) {
+			int tickets = (taxi > 0 ? TAXI : 0) | (bus > 0 ? BUS : 0) | (underground > 0 ? UNDERGROUND : 0);
+			return Math.max(HORIZON + 1, table.distance(from, to, tickets));
+		}
+		return distance;
+	}
+
+	/**
+	 * @return how many stations' distances are cached
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Forgets every cached distance
+	 */
+	public void clear() {
+		cache.clear();
+	}
+
+	// Breadth first search over the states (station, tickets left), one layer per round
+	// A state is packed as station * vectors + ((taxi * buses + bus) * undergrounds + underground), each state is only
+	// visited in the first round it's reached, as reaching it later can't get anywhere sooner
+	private byte[] search(int source, int taxi, int bus, int underground) {
+		int undergrounds = underground + 1, buses = bus + 1, vectors = (taxi + 1) * buses * undergrounds;
+		int busStep = undergrounds, taxiStep = buses * undergrounds;
+		long[] visited = new long[(graph.capacity() * vectors + 63) >>> 6];
+		byte[] distances = new byte[graph.capacity()];
+		Arrays.fill(distances, UNREACHABLE_BYTE);
+
+		int start = source * vectors + (vectors - 1);
+		int[] queue = new int[64];
+		queue[0] = start;
+		visited[start >>> 6] |= 1L << start;
+		distances[source] = 0;
+		int reached = 1, head = 0, tail = 1;
+		for (int round = 1; round <= HORIZON && head < tail && reached < graph.stationCount(); round++) {
+			for (int end = tail; head < end; head++) {
+				int station = queue[head] / vectors, vector = queue[head] % vectors;
+				boolean hasTaxi = vector / taxiStep > 0;
+				boolean hasBus = vector / busStep % buses > 0;
+				boolean hasUnderground = vector % undergrounds > 0;
+				for (int edge = graph.firstEdge(station); edge < graph.endEdge(station); edge++) {
+					int tickets = graph.tickets(edge), next = graph.neighbour(edge) * vectors;
+					for (int used = 0; used < 3; used++) {
+						int state;
+						if (used == 0 && hasTaxi && (tickets & TAXI) != 0) state = next + vector - taxiStep;
+						else if (used == 1 && hasBus && (tickets & BUS) != 0) state = next + vector - busStep;
+						else if (used == 2 && hasUnderground && (tickets & UNDERGROUND) != 0) state = next + vector - 1;
+						else continue;
+						if ((visited[state >>> 6] & 1L << state) != 0) continue;
+						visited[state >>> 6] |= 1L << state;
+						if (distances[graph.neighbour(edge)] == UNREACHABLE_BYTE) {
+							distances[graph.neighbour(edge)] = (byte) round;
+							reached++;
+						}
+						if (tail == queue.length) queue = Arrays.copyOf(queue, tail * 2);
+						queue[tail++] = state;
+					}
+				}
+			}
+		}
+		// Stopped at the horizon with states left to search from: the rest may still be reachable
+		if (head < tail && reached < graph.stationCount()) {
+			for (int station = 0; station < distances.length; station++) {
+				if (graph.contains(station) && distances[station] == UNREACHABLE_BYTE) distances[station] = BEYOND_BYTE;
+			}
+		}
+		return distances;
+	}
+}
@@ -0,0 +1,80 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Objects;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A persistent (immutable, structure sharing) version of MrX's travel log.
+ * <br>
+ * The log is a cons-list from the newest entry back to the first one, so {@link #append(LogEntry)}
+ * is O(1) and every state of a game tree shares the log prefix it was derived from. The
+ * {@link ImmutableList} view needed by {@link Board#getMrXTravelLog()} is only built when asked for,
+ * and then remembered.
+ */
+public final class TravelLog {
+	private static final TravelLog EMPTY = new TravelLog(null, null, 0);
+
+	private final TravelLog previous;
+	private final LogEntry entry;
+	private final int size;
+	// Built on first request; racing threads build equal immutable lists
+	private ImmutableList<LogEntry> list;
+
+	private TravelLog(TravelLog previous, LogEntry entry, int size) {
+		this.previous = previous;
+		this.entry = entry;
+		this.size = size;
+	}
+
+	/**
+	 * @return the empty travel log
+	 */
+	@Nonnull public static TravelLog empty() { return EMPTY; }
+
+	/**
+	 * @param entry the entry to add to the end of the log
+	 * @return a new log with the entry appended, sharing all of this log's entries
+	 */
+	@Nonnull public TravelLog append(@Nonnull LogEntry entry) {
+		return new TravelLog(this, Objects.requireNonNull(entry), size + 1);
+	}
+
+	/**
+	 * @return the number of entries in the log
+	 */
+	public int size() { return size; }
+
+	/**
+	 * @return whether the log has no entries
+	 */
+	public boolean isEmpty() { return size == 0; }
+
+	/**
+	 * @return the log as an {@link ImmutableList}, oldest entry first
+	 */
+	@Nonnull public ImmutableList<LogEntry> asList() {
+		if (list == null) {
+			LogEntry[] entries = new LogEntry[size];
+			for (TravelLog log = this; log.size > 0; log = log.previous) entries[log.size - 1] = log.entry;
+			list = ImmutableList.copyOf(entries);
+		}
+		return list;
+	}
+
+	@Override public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		TravelLog that = (TravelLog) o;
+		if (size != that.size) return false;
+		// Walk both logs back until they share a tail
+		for (TravelLog a = this, b = that; a != b; a = a.previous, b = b.previous) {
+			if (!a.entry.equals(b.entry)) return false;
+		}
+		return true;
+	}
+	@Override public int hashCode() { return asList().hashCode(); }
+	@Override public String toString() { return asList().toString(); }
+}
@@ -0,0 +1,123 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import javax.annotation.Nonnull;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+/**
+ * Zobrist keys for game positions.
+ * <br>
+ * Every feature of a position (a piece standing on a station, a piece holding a number of tickets
+ * of one type, a piece still to move this round, and the round) has a fixed random 64-bit key, and
+ * the key of a position is the XOR of the keys of its features. A move only changes a few
+ * features, so a state's key is updated by XOR-ing out the old feature keys and XOR-ing in the new
+ * ones instead of hashing the whole position again.
+ * <br>
+ * Keys are a fixed function of the feature, so they are the same in every run. The common range
+ * of each feature is looked up in a table and anything outside it is computed on the fly.
+ */
+public final class Zobrist {
+	private static final int PIECES = 6;							// See MoveCodec.pieceIndex()
+	private static final int TICKETS = Ticket.values().length;
+
+	// Sizes of the tables, large enough for the standard game
+	private static final int STATIONS = 256;
+	private static final int COUNTS = 32;
+	private static final int ROUNDS = 32;
+
+	// Feature kinds, kept apart in the top bits of the feature id
+	private static final long LOCATION = 1, TICKET = 2, REMAINING = 3, ROUND = 4;
+
+	private static final long[] LOCATION_KEYS = new long[PIECES * STATIONS];
+	private static final long[] TICKET_KEYS = new long[PIECES * TICKETS * COUNTS];
+	private static final long[] REMAINING_KEYS = new long[PIECES];
+	private static final long[] ROUND_KEYS = new long[ROUNDS];
+
+	static {
+		for (int piece = 0; piece < PIECES; piece++) {
+			for (int station = 0; station < STATIONS; station++)
+				LOCATION_KEYS[piece * STATIONS + station] = mix(feature(LOCATION, piece, 0, station));
+			for (int ticket = 0; ticket < TICKETS; ticket++) {
+				for (int count = 0; count < COUNTS; count++)
+					TICKET_KEYS[(piece * TICKETS + ticket) * COUNTS + count] = mix(feature(TICKET, piece, ticket, count));
+			}
+			REMAINING_KEYS[piece] = mix(feature(REMAINING, piece, 0, 0));
+		}
+		for (int round = 0; round < ROUNDS; round++) ROUND_KEYS[round] = mix(feature(ROUND, 0, 0, round));
+	}
+
+	private Zobrist() {}
+
+	/**
+	 * @param piece the piece
+	 * @param station the station the piece is standing on
+	 * @return the key of the piece standing on the station
+	 */
+	public static long location(@Nonnull Piece piece, int station) {
+		int index = MoveCodec.pieceIndex(piece);
+		if (station >= 0 && station < STATIONS) return LOCATION_KEYS[index * STATIONS + station];
+		return mix(feature(LOCATION, index, 0, station));
+	}
+
+	/**
+	 * @param piece the piece
+	 * @param ticket the ticket type
+	 * @param count how many tickets of the type the piece holds
+	 * @return the key of the piece holding {@code count} tickets of the type
+	 */
+	public static long tickets(@Nonnull Piece piece, @Nonnull Ticket ticket, int count) {
+		int index = MoveCodec.pieceIndex(piece);
+		if (count >= 0 && count < COUNTS) return TICKET_KEYS[(index * TICKETS + ticket.ordinal()) * COUNTS + count];
+		return mix(feature(TICKET, index, ticket.ordinal(), count));
+	}
+
+	/**
+	 * @param piece the piece
+	 * @return the key of the piece still being able to move this round
+	 */
+	public static long remaining(@Nonnull Piece piece) {
+		return REMAINING_KEYS[MoveCodec.pieceIndex(piece)];
+	}
+
+	/**
+	 * @param round the round, i.e. the number of moves in Mr X's travel log
+	 * @return the key of the round
+	 */
+	public static long round(int round) {
+		if (round >= 0 && round < ROUNDS) return ROUND_KEYS[round];
+		return mix(feature(ROUND, 0, 0, round));
+	}
+
+	/**
+	 * @param player the player
+	 * @return the combined key of the player's location and ticket counts
+	 */
+	public static long player(@Nonnull Player player) {
+		long key = location(player.piece(), player.location());
+		for (Ticket ticket : Ticket.values()) key ^= tickets(player.piece(), ticket, player.count(ticket));
+		return key;
+	}
+
+	/**
+	 * @param pieces the pieces still to move this round
+	 * @return the combined key of the pieces still being able to move
+	 */
+	public static long remaining(@Nonnull Iterable<Piece> pieces) {
+		long key = 0;
+		for (Piece piece : pieces) key ^= remaining(piece);
+		return key;
+	}
+
+	// Unique id of a feature, the value is a station, count or round
+	private static long feature(long kind, int piece, int ticket, int value) {
+		return kind << 56 | (long) piece << 48 | (long) ticket << 40 | (value & 0xFFFFFFFFL);
+	}
+
+	// The SplitMix64 finaliser, which spreads consecutive ids over the whole 64 bits
+	private static long mix(long z) {
+		z += 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
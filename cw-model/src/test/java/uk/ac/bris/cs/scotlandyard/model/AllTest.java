@@ -15,6 +15,16 @@ import org.junit.runners.Suite;
 		GameStateDetectivesAvailableMovesTest.class,
 		GameStateMrXAvailableMovesTest.class,
 		GameStatePlayoutTest.class,
-		ModelObserverTest.class
+		ModelObserverTest.class,
+		EngineGameStateTest.class,
+		SearchStateTest.class,
+		PlayerTest.class,
+		GameStateCodecTest.class,
+		DetectiveSymmetryTest.class,
+		SetupRegistryTest.class,
+		DistanceTableTest.class,
+		TicketDistancesTest.class,
+		PerftTest.class,
+		ParallelPerftTest.class
 })
 public class AllTest {}
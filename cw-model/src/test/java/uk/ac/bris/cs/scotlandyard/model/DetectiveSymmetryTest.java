@@ -0,0 +1,139 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Longs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.makeTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standard24MoveSetup;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.taxi;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.BLUE;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.GREEN;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.RED;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultDetectiveTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.defaultMrXTickets;
+
+/**
+ * Tests that {@link DetectiveSymmetry} only tells positions apart by what the detectives are doing
+ */
+public class DetectiveSymmetryTest {
+
+	private static EngineGameState game(Player... detectives) {
+		return new MyGameStateFactory().build(standard24MoveSetup(), new Player(MRX, defaultMrXTickets(), 100),
+				ImmutableList.copyOf(detectives));
+	}
+
+	@Test public void testSwappingEqualDetectivesKeepsCanonicalKey() {
+		EngineGameState state = game(new Player(RED, defaultDetectiveTickets(), 1),
+				new Player(GREEN, defaultDetectiveTickets(), 19));
+		EngineGameState swapped = game(new Player(RED, defaultDetectiveTickets(), 19),
+				new Player(GREEN, defaultDetectiveTickets(), 1));
+		assertThat(state.zobristKey()).isNotEqualTo(swapped.zobristKey());
+		assertThat(state.canonicalKey()).isEqualTo(swapped.canonicalKey());
+		assertThat(SearchState.of(state).canonicalKey()).isEqualTo(state.canonicalKey());
+		assertThat(SearchState.of(swapped).canonicalKey()).isEqualTo(state.canonicalKey());
+	}
+
+	@Test public void testDetectivesSwapWithTheirTickets() {
+		EngineGameState state = game(new Player(RED, makeTickets(5, 0, 0, 0, 0), 1),
+				new Player(GREEN, makeTickets(0, 5, 0, 0, 0), 19));
+		EngineGameState swapped = game(new Player(RED, makeTickets(0, 5, 0, 0, 0), 19),
+				new Player(GREEN, makeTickets(5, 0, 0, 0, 0), 1));
+		EngineGameState stationsOnly = game(new Player(RED, makeTickets(5, 0, 0, 0, 0), 19),
+				new Player(GREEN, makeTickets(0, 5, 0, 0, 0), 1));
+		assertThat(swapped.canonicalKey()).isEqualTo(state.canonicalKey());
+		assertThat(stationsOnly.canonicalKey()).isNotEqualTo(state.canonicalKey());
+	}
+
+	@Test public void testDetectivesStillToMoveArePartOfTheKey() {
+		// Blue has moved, green hasn't: swapping them gives a position where green can't move any more
+		EngineGameState state = game(new Player(RED, defaultDetectiveTickets(), 1),
+				new Player(GREEN, defaultDetectiveTickets(), 19), new Player(BLUE, defaultDetectiveTickets(), 50));
+		EngineGameState afterBlue = state.advance(MoveCodec.encode(taxi(MRX, 100, 101)))
+				.advance(MoveCodec.encode(taxi(BLUE, 50, 49)));
+		EngineGameState afterGreen = state.advance(MoveCodec.encode(taxi(MRX, 100, 101)))
+				.advance(MoveCodec.encode(taxi(GREEN, 19, 32)));
+		assertThat(afterBlue.canonicalKey()).isEqualTo(SearchState.of(afterBlue, 101).canonicalKey());
+		assertThat(afterBlue.canonicalKey()).isNotEqualTo(afterGreen.canonicalKey());
+	}
+
+	@Test public void testCanonicalOrderIsByLocation() {
+		EngineGameState state = game(new Player(RED, defaultDetectiveTickets(), 50),
+				new Player(GREEN, defaultDetectiveTickets(), 19), new Player(BLUE, defaultDetectiveTickets(), 1));
+		assertThat(DetectiveSymmetry.canonicalOrder(state)).containsExactly(BLUE, GREEN, RED);
+	}
+
+	@Test public void testDistinctRoundsSkipSymmetricRounds() {
+		// Red (from 1) and green (from 19) can both take a taxi to 8 or 9, so which one goes where doesn't matter
+		SearchState search = SearchState.of(game(new Player(RED, defaultDetectiveTickets(), 1),
+				new Player(GREEN, defaultDetectiveTickets(), 19)));
+		search.make(MoveCodec.encode(taxi(MRX, 100, 101)));
+
+		List<long[]> all = new ArrayList<>(), distinct = new ArrayList<>();
+		search.detectiveRounds().forEachRemaining(all::add);
+		search.detectiveRounds(null, Integer.MAX_VALUE, true).forEachRemaining(distinct::add);
+		assertThat(distinct).hasSize(all.size() - 1);
+		assertThat(outcomes(search, distinct)).hasSize(distinct.size()).isEqualTo(outcomes(search, all));
+		assertThat(distinct).extracting(Longs::asList)
+				.contains(Longs.asList(MoveCodec.encode(taxi(RED, 1, 8)), MoveCodec.encode(taxi(GREEN, 19, 9))))
+				.doesNotContain(Longs.asList(MoveCodec.encode(taxi(RED, 1, 9)), MoveCodec.encode(taxi(GREEN, 19, 8))));
+	}
+
+	@Test public void testDistinctRoundsInterleavedWithDeeperRounds() {
+		SearchState search = SearchState.of(game(new Player(RED, defaultDetectiveTickets(), 1),
+				new Player(GREEN, defaultDetectiveTickets(), 19)));
+		search.make(MoveCodec.encode(taxi(MRX, 100, 101)));
+		long key = search.zobristKey();
+
+		List<long[]> expected = new ArrayList<>(), interleaved = new ArrayList<>();
+		search.detectiveRounds(null, Integer.MAX_VALUE, true).forEachRemaining(expected::add);
+		DetectiveRounds rounds = search.detectiveRounds(null, Integer.MAX_VALUE, true);
+		MoveList moves = new MoveList();
+		while (rounds.hasNext()) {
+			long[] round = rounds.next();
+			interleaved.add(round);
+			// The rounds of the next detectives' turn are generated while these are still being iterated
+			search.makeRound(round);
+			moves.clear();
+			search.generateMoves(moves);
+			if (!moves.isEmpty()) {
+				search.make(moves.get(0));
+				search.detectiveRounds(null, Integer.MAX_VALUE, true).forEachRemaining(inner -> {});
+				search.unmake();
+			}
+			search.unmakeRound(round);
+		}
+		assertThat(interleaved).usingElementComparator((a, b) -> Longs.asList(a).equals(Longs.asList(b)) ? 0 : 1)
+				.containsExactlyElementsOf(expected);
+		assertThat(search.zobristKey()).isEqualTo(key);
+	}
+
+	@Test public void testDistinctRoundsRequireTheirPosition() {
+		SearchState search = SearchState.of(game(new Player(RED, defaultDetectiveTickets(), 1),
+				new Player(GREEN, defaultDetectiveTickets(), 19)));
+		search.make(MoveCodec.encode(taxi(MRX, 100, 101)));
+		DetectiveRounds rounds = search.detectiveRounds(null, Integer.MAX_VALUE, true);
+		search.makeRound(rounds.next());
+		assertThatThrownBy(rounds::next).isInstanceOf(IllegalStateException.class);
+	}
+
+	// The canonical keys of the positions the rounds end in
+	private static Set<Long> outcomes(SearchState search, List<long[]> rounds) {
+		Set<Long> keys = new HashSet<>();
+		for (long[] round : rounds) {
+			search.makeRound(round);
+			keys.add(search.canonicalKey());
+			search.unmakeRound(round);
+		}
+		return keys;
+	}
+}
@@ -0,0 +1,101 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standard24MoveSetup;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standardGraph;
+
+/**
+ * Tests that {@link DistanceTable} matches a breadth first search of the graph
+ */
+public class DistanceTableTest {
+
+	private static final int TAXI = CompiledGraph.bit(Ticket.TAXI);
+	private static final int BUS = CompiledGraph.bit(Ticket.BUS);
+	private static final int UNDERGROUND = CompiledGraph.bit(Ticket.UNDERGROUND);
+	private static final int SECRET = CompiledGraph.bit(Ticket.SECRET);
+
+	@Test public void testSharedBySetup() {
+		GameSetup setup = standard24MoveSetup();
+		assertThat(DistanceTable.of(setup)).isSameAs(DistanceTable.of(setup))
+				.isSameAs(DistanceTable.of(new GameSetup(standardGraph(), setup.moves)));
+	}
+
+	@Test public void testNeighbours() {
+		DistanceTable table = DistanceTable.of(standard24MoveSetup());
+		assertThat(table.distance(1, 1, TAXI)).isEqualTo(0);
+		assertThat(table.distance(1, 8, TAXI)).isEqualTo(1);
+		assertThat(table.distance(1, 46, BUS)).isEqualTo(1);
+		assertThat(table.distance(1, 46, UNDERGROUND)).isEqualTo(1);
+		assertThat(table.distance(1, 46, TAXI)).isGreaterThan(1);
+	}
+
+	@Test public void testNoTicketsReachNothing() {
+		DistanceTable table = DistanceTable.of(standard24MoveSetup());
+		assertThat(table.distance(1, 1, 0)).isEqualTo(0);
+		assertThat(table.distance(1, 8, 0)).isEqualTo(DistanceTable.UNREACHABLE);
+		assertThat(table.distance(1, 8, CompiledGraph.bit(Ticket.DOUBLE))).isEqualTo(DistanceTable.UNREACHABLE);
+	}
+
+	@Test public void testSecretTicketsUseFerries() {
+		DistanceTable table = DistanceTable.of(standard24MoveSetup());
+		assertThat(table.distance(157, 194, SECRET)).isEqualTo(1);
+		assertThat(table.distance(157, 194)).isEqualTo(1);
+		assertThat(table.distance(157, 194, TAXI | BUS | UNDERGROUND)).isGreaterThan(1);
+	}
+
+	@Test public void testStationsNotOnTheGraph() {
+		DistanceTable table = DistanceTable.of(standard24MoveSetup());
+		assertThat(table.distance(0, 1)).isEqualTo(DistanceTable.UNREACHABLE);
+		assertThat(table.distance(1, 1000, TAXI)).isEqualTo(DistanceTable.UNREACHABLE);
+	}
+
+	@Test public void testEverySubsetMatchesSearch() {
+		GameSetup setup = standard24MoveSetup();
+		DistanceTable table = DistanceTable.of(setup);
+		int[] subsets = {TAXI, BUS, UNDERGROUND, TAXI | BUS, TAXI | UNDERGROUND, BUS | UNDERGROUND,
+				TAXI | BUS | UNDERGROUND, SECRET};
+		for (int tickets : subsets) {
+			for (int source : setup.graph.nodes()) {
+				Map<Integer, Integer> expected = search(setup.graph, source, tickets);
+				for (int target : setup.graph.nodes()) {
+					assertThat(table.distance(source, target, tickets))
+							.as("%d to %d with tickets %d", source, target, tickets)
+							.isEqualTo(expected.getOrDefault(target, DistanceTable.UNREACHABLE));
+				}
+			}
+		}
+	}
+
+	private static Map<Integer, Integer> search(ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph,
+	                                            int source, int tickets) {
+		Map<Integer, Integer> distances = new HashMap<>();
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		distances.put(source, 0);
+		queue.add(source);
+		while (!queue.isEmpty()) {
+			int station = queue.remove();
+			for (int neighbour : graph.adjacentNodes(station)) {
+				if (distances.containsKey(neighbour)) continue;
+				boolean usable = (tickets & SECRET) != 0;
+				for (Transport transport : graph.edgeValueOrDefault(station, neighbour, ImmutableSet.of()))
+					usable |= (tickets & CompiledGraph.bit(transport.requiredTicket())) != 0;
+				if (!usable) continue;
+				distances.put(neighbour, distances.get(station) + 1);
+				queue.add(neighbour);
+			}
+		}
+		return distances;
+	}
+}
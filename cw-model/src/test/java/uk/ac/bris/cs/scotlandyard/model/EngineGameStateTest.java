@@ -0,0 +1,207 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.StreamSupport;
+
+import uk.ac.bris.cs.scotlandyard.model.Piece.Detective;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.blackPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.bluePlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.greenPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.makeTickets;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.playRandomGame;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.redPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standard24MoveSetup;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standardGame;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.taxi;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.whitePlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.yellowPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.BLUE;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.GREEN;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+
+/**
+ * Tests the additions {@link EngineGameState} makes to the game state of {@link MyGameStateFactory}
+ */
+public class EngineGameStateTest {
+
+	@Test public void testTranspositionsHaveEqualKeys() {
+		EngineGameState state = standardGame().advance(taxi(MRX, 35, 36));
+		EngineGameState greenFirst = state.advance(taxi(GREEN, 50, 49)).advance(taxi(BLUE, 53, 54));
+		EngineGameState blueFirst = state.advance(taxi(BLUE, 53, 54)).advance(taxi(GREEN, 50, 49));
+		assertThat(greenFirst.zobristKey()).isEqualTo(blueFirst.zobristKey());
+		assertThat(greenFirst).isEqualTo(blueFirst);
+		assertThat(greenFirst.hashCode()).isEqualTo(blueFirst.hashCode());
+	}
+
+	@Test public void testDifferentMovesHaveDifferentKeys() {
+		EngineGameState state = standardGame();
+		EngineGameState moved = state.advance(taxi(MRX, 35, 36));
+		EngineGameState movedElsewhere = state.advance(taxi(MRX, 35, 48));
+		assertThat(moved.zobristKey()).isNotEqualTo(state.zobristKey());
+		assertThat(moved.zobristKey()).isNotEqualTo(movedElsewhere.zobristKey());
+		assertThat(moved).isNotEqualTo(movedElsewhere);
+	}
+
+	@Test public void testIncrementalKeyMatchesWholePosition() {
+		Random random = new Random(42);
+		for (int game = 0; game < 20; game++) {
+			int[] mrXLocation = {blackPlayer().location()};
+			playRandomGame(standardGame(), random, (state, move) -> {
+				// The whole position is only known from the outside at the start of a round
+				if (state.getWinner().isEmpty() && state.getAvailableMoves().iterator().next().commencedBy() == MRX)
+					assertThat(state.zobristKey()).isEqualTo(wholeKey(state, mrXLocation[0]));
+				if (move != MoveCodec.NONE && MoveCodec.piece(move) == MRX) mrXLocation[0] = MoveCodec.destination(move);
+			});
+		}
+	}
+
+	@Test public void testTrustedAdvanceMatchesAdvance() {
+		playRandomGame(standardGame(), new Random(3), (state, move) -> {
+			if (move == MoveCodec.NONE) return;
+			EngineGameState trusted = state.advanceTrusted(move), advanced = state.advance(move);
+			assertThat(trusted).isEqualTo(advanced);
+			assertThat(trusted.getAvailableMoves()).isEqualTo(advanced.getAvailableMoves());
+			assertThat(trusted.getWinner()).isEqualTo(advanced.getWinner());
+		});
+	}
+
+	@Test public void testTrustedAdvanceChecksMoveWithAssertionsEnabled() {
+		assertThatThrownBy(() -> standardGame().advanceTrusted(taxi(MRX, 35, 1)))
+				.isInstanceOf(AssertionError.class);
+	}
+
+	// The key computed from scratch at the start of a round, i.e. with only Mr X left to move
+	private static long wholeKey(Board board, int mrXLocation) {
+		long key = Zobrist.location(MRX, mrXLocation) ^ Zobrist.remaining(MRX)
+				^ Zobrist.round(board.getMrXTravelLog().size());
+		for (Piece piece : board.getPlayers()) {
+			if (piece.isDetective())
+				key ^= Zobrist.location(piece, board.getDetectiveLocation((Detective) piece).orElseThrow());
+			for (Ticket ticket : Ticket.values())
+				key ^= Zobrist.tickets(piece, ticket, board.getPlayerTickets(piece).orElseThrow().getCount(ticket));
+		}
+		return key;
+	}
+
+	@Test public void testMoveIteratorMatchesGeneratedMoves() {
+		Random random = new Random(3);
+		for (int game = 0; game < 10; game++) {
+			playRandomGame(standardGame(), random, (state, move) -> {
+				// Before the moves have been generated (and remembered) by the state, and after
+				if (move != MoveCodec.NONE) {
+					MoveList fresh = new MoveList(), generated = new MoveList();
+					EngineGameState next = state.advance(move);
+					next.moveIterator().forEachRemaining((long nextMove) -> fresh.add(nextMove));
+					next.generateMoves(generated);
+					assertThat(fresh.toMoves()).isEqualTo(generated.toMoves());
+				}
+				MoveList moves = new MoveList(), iterated = new MoveList();
+				state.generateMoves(moves);
+				state.moveIterator().forEachRemaining((long nextMove) -> iterated.add(nextMove));
+				assertThat(iterated.toMoves()).isEqualTo(moves.toMoves());
+			});
+		}
+	}
+
+	@Test public void testLazyMovesBeforeAnyGenerated() {
+		EngineGameState state = standardGame().advance(taxi(MRX, 35, 36));
+		ImmutableList<Move> lazy = ImmutableList.copyOf(state.availableMoveIterator());
+		assertThat(lazy).containsExactlyElementsOf(state.getAvailableMoves());
+		assertThat(StreamSupport.longStream(standardGame().moveSpliterator(), false).count())
+				.isEqualTo(standardGame().getAvailableMoves().size());
+	}
+
+	@Test public void testRandomMovePicksAsFromTheSet() {
+		// A fresh state generates the moves on demand, a state whose moves were asked for picks from those
+		EngineGameState fresh = standardGame();
+		EngineGameState generated = standardGame();
+		ImmutableList<Move> moves = generated.getAvailableMoves().asList();
+		SplittableRandom expected = new SplittableRandom(5);
+		SplittableRandom lazy = new SplittableRandom(5), memo = new SplittableRandom(5);
+		for (int i = 0; i < 50; i++) {
+			Move move = moves.get(expected.nextInt(moves.size()));
+			assertThat(MoveCodec.decode(fresh.randomMove(lazy))).isEqualTo(move);
+			assertThat(MoveCodec.decode(generated.randomMove(memo))).isEqualTo(move);
+		}
+	}
+
+	@Test public void testRandomMovePicksAsFromTheSetThroughoutGames() {
+		Random random = new Random(4);
+		for (int game = 0; game < 10; game++) {
+			playRandomGame(standardGame(), random, (state, move) -> {
+				if (move == MoveCodec.NONE) return;
+				// The next state is fresh when it's first asked, so picks by counting the moves rather than from a list
+				EngineGameState next = state.advance(move);
+				long picked = next.randomMove(new SplittableRandom(move));
+				MoveList moves = new MoveList();
+				next.generateMoves(moves);
+				assertThat(picked).isEqualTo(moves.isEmpty() ? MoveCodec.NONE
+						: moves.get(new SplittableRandom(move).nextInt(moves.size())));
+			});
+		}
+	}
+
+	@Test public void testRandomMoveCountsDoublesWithOneOfATicket() {
+		// With one of each ticket, no double move can use the same type twice
+		Player mrX = new Player(MRX, makeTickets(1, 1, 1, 1, 1), blackPlayer().location());
+		ImmutableList<Player> detectives = ImmutableList.of(redPlayer(), greenPlayer(), bluePlayer(), whitePlayer(), yellowPlayer());
+		MoveList moves = new MoveList();
+		new MyGameStateFactory().build(standard24MoveSetup(), mrX, detectives).generateMoves(moves);
+		for (int seed = 0; seed < 100; seed++) {
+			EngineGameState fresh = new MyGameStateFactory().build(standard24MoveSetup(), mrX, detectives);
+			assertThat(fresh.randomMove(new SplittableRandom(seed)))
+					.isEqualTo(moves.get(new SplittableRandom(seed).nextInt(moves.size())));
+		}
+	}
+
+	@Test public void testNoRandomMoveOnceGameOver() {
+		EngineGameState state = standardGame();
+		SplittableRandom random = new SplittableRandom(9);
+		long move;
+		while ((move = state.randomMove(random)) != MoveCodec.NONE) state = state.advance(move);
+		assertThat(state.getWinner()).isNotEmpty();
+		assertThat(state.moveIterator().hasNext()).isFalse();
+	}
+
+	@Test public void testPieceSetsAndTicketBoardsAreShared() {
+		EngineGameState state = standardGame();
+		EngineGameState next = state.advance(taxi(MRX, 35, 36)).advance(taxi(GREEN, 50, 49));
+		assertThat(next.getPlayers()).isSameAs(state.getPlayers());
+		assertThat(next.getSetup()).isSameAs(state.getSetup());
+		// Blue hasn't moved, so keeps its board, green has a new one
+		assertThat(next.getPlayerTickets(BLUE)).isSameAs(state.getPlayerTickets(BLUE));
+		assertThat(next.getPlayerTickets(GREEN)).isNotSameAs(state.getPlayerTickets(GREEN));
+		assertThat(next.getPlayerTickets(GREEN).orElseThrow().getCount(Ticket.TAXI))
+				.isEqualTo(state.getPlayerTickets(GREEN).orElseThrow().getCount(Ticket.TAXI) - 1);
+		assertThat(next.getDetectiveLocation(GREEN)).contains(49);
+		assertThat(next.getDetectiveLocation(BLUE)).contains(53);
+	}
+
+	@Test public void testBlockedDetectivesAreSkipped() {
+		// Green's only taxi routes out of 1 are to 8 and 9, which blue and red take
+		Player mrX = new Player(MRX, ScotlandYard.defaultMrXTickets(), 100);
+		Player red = new Player(Detective.RED, ParameterisedModelTestBase.makeTickets(5, 0, 0, 0, 0), 20);
+		Player green = new Player(GREEN, ParameterisedModelTestBase.makeTickets(5, 0, 0, 0, 0), 1);
+		Player blue = new Player(BLUE, ParameterisedModelTestBase.makeTickets(5, 0, 0, 0, 0), 18);
+		EngineGameState state = new MyGameStateFactory().build(standard24MoveSetup(), mrX, ImmutableList.of(red, green, blue));
+		SearchState search = SearchState.of(state);
+		for (Move move : ImmutableList.of(taxi(MRX, 100, 101), taxi(BLUE, 18, 8), taxi(Detective.RED, 20, 9))) {
+			state = state.advance(move);
+			search.make(MoveCodec.encode(move));
+		}
+		// Instead of waiting for green forever, it's Mr X's turn again
+		assertThat(state.getWinner()).isEmpty();
+		assertThat(state.getAvailableMoves()).isNotEmpty().allMatch(move -> move.commencedBy().isMrX());
+		assertThat(search.isMrXTurn()).isTrue();
+		assertThat(search.zobristKey()).isEqualTo(state.zobristKey());
+	}
+}
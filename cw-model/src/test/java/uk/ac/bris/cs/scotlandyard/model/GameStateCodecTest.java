@@ -0,0 +1,121 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.bus;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.playRandomGame;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standard24MoveSetup;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standardGame;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.taxi;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.BLUE;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.BUS;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.TAXI;
+
+/**
+ * Tests that positions survive a round trip through {@link GameStateCodec}
+ */
+public class GameStateCodecTest {
+
+	@Test public void testRoundTripThroughRandomGames() {
+		GameStateCodec codec = new GameStateCodec(standard24MoveSetup());
+		Random random = new Random(13);
+		for (int game = 0; game < 20; game++) {
+			playRandomGame(standardGame(), random, (state, move) -> {
+				EngineGameState decoded = codec.decode(codec.encode(state));
+				assertThat(decoded.getAvailableMoves()).isEqualTo(state.getAvailableMoves());
+				assertThat(decoded.getWinner()).isEqualTo(state.getWinner());
+				assertThat(decoded.getMrXTravelLog()).isEqualTo(state.getMrXTravelLog());
+				assertThat(decoded.mrXLocation()).isEqualTo(state.mrXLocation());
+				// Until the game is over, the remaining players are known, so it's the very same state
+				if (state.getWinner().isEmpty()) {
+					assertThat(decoded).isEqualTo(state);
+					assertThat(decoded.zobristKey()).isEqualTo(state.zobristKey());
+				}
+			});
+		}
+	}
+
+	@Test public void testSearchStateWritesTheSameSnapshot() {
+		GameStateCodec codec = new GameStateCodec(standard24MoveSetup());
+		SearchState search = SearchState.of(standardGame());
+		playRandomGame(standardGame(), new Random(17), (state, move) -> {
+			assertThat(codec.encode(search)).isEqualTo(codec.encode(state));
+			if (move != MoveCodec.NONE) search.make(move);
+		});
+	}
+
+	@Test public void testRoundTripWithPartialTicketMap() {
+		GameStateCodec codec = new GameStateCodec(standard24MoveSetup());
+		// Mr X's map has no taxi tickets at all, so he can't be given the one blue uses
+		EngineGameState state = new MyGameStateFactory().build(standard24MoveSetup(),
+				new Player(MRX, ImmutableMap.of(BUS, 2), 46),
+				ImmutableList.of(new Player(BLUE, ScotlandYard.defaultDetectiveTickets(), 94)));
+		EngineGameState decoded = codec.decode(codec.encode(state));
+		assertThat(decoded).isEqualTo(state);
+		assertThat(decoded.presentTickets(MRX)).isEqualTo(CompiledGraph.bit(BUS));
+
+		for (Move move : List.of(bus(MRX, 46, 58), taxi(BLUE, 94, 95))) {
+			state = state.advance(move);
+			decoded = codec.decode(codec.encode(decoded.advance(move)));
+			assertThat(decoded).isEqualTo(state);
+		}
+		assertThat(decoded.getPlayerTickets(MRX).orElseThrow().getCount(TAXI)).isZero();
+	}
+
+	@Test public void testSnapshotSize() {
+		// 13 bytes of header, a byte for the number of players, 12 per player and one each for the
+		// remaining players and the length of the log
+		assertThat(new GameStateCodec(standard24MoveSetup()).encode(standardGame())).hasSize(88);
+	}
+
+	@Test public void testReadsVersionOneSnapshots() {
+		GameStateCodec codec = new GameStateCodec(standard24MoveSetup());
+		EngineGameState state = standardGame();
+		byte[] bytes = codec.encode(state);
+		// Version 1 had no ticket masks, the last byte of each player
+		ByteArrayOutputStream old = new ByteArrayOutputStream();
+		old.write(bytes, 0, 14);
+		for (int player = 0; player < bytes[13]; player++) old.write(bytes, 14 + 12 * player, 11);
+		int end = 14 + 12 * bytes[13];
+		old.write(bytes, end, bytes.length - end);
+		byte[] version1 = old.toByteArray();
+		version1[4] = 1;
+		assertThat(codec.decode(version1)).isEqualTo(state);
+	}
+
+	@Test public void testFingerprintDependsOnRevealRounds() {
+		GameSetup setup = standard24MoveSetup();
+		GameSetup other = new GameSetup(setup.graph, ImmutableList.of(true, false, false));
+		assertThat(GameStateCodec.fingerprint(setup)).isEqualTo(new GameStateCodec(setup).fingerprint());
+		assertThat(GameStateCodec.fingerprint(other)).isNotEqualTo(GameStateCodec.fingerprint(setup));
+	}
+
+	@Test public void testRejectsSnapshotOfAnotherSetup() {
+		byte[] bytes = new GameStateCodec(standard24MoveSetup()).encode(standardGame());
+		GameSetup other = new GameSetup(standard24MoveSetup().graph, ImmutableList.of(true, false, false));
+		assertThatThrownBy(() -> new GameStateCodec(other).decode(bytes))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testRejectsMalformedSnapshots() {
+		GameStateCodec codec = new GameStateCodec(standard24MoveSetup());
+		byte[] bytes = codec.encode(standardGame());
+		assertThatThrownBy(() -> codec.decode(Arrays.copyOf(bytes, bytes.length - 1)))
+				.isInstanceOf(IllegalArgumentException.class);
+		byte[] wrongVersion = bytes.clone();
+		wrongVersion[4] = (byte) (GameStateCodec.VERSION + 1);
+		assertThatThrownBy(() -> codec.decode(wrongVersion)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> codec.decode(new byte[]{1, 2, 3, 4, 5})).isInstanceOf(IllegalArgumentException.class);
+	}
+}
@@ -1,5 +1,7 @@
 package uk.ac.bris.cs.scotlandyard.model;
 
+import com.google.common.collect.ImmutableMap;
+
 import org.junit.Test;
 
 import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
@@ -63,6 +65,19 @@ public class GameStatePlayerTest extends ParameterisedModelTestBase {
 		assertTickets(state, BLUE, 1, 0, 0, 0, 0);
 	}
 
+	@Test public void testDetectiveTicketsOnlyGivenToMrXIfInHisMap() {
+		// Mr X's map has no taxi tickets at all, so he doesn't get the one blue uses
+		var mrX = new Player(MRX, ImmutableMap.of(BUS, 2), 46);
+		var blue = new Player(BLUE, makeTickets(2, 0, 0, 0, 0), 94);
+
+		GameState state = gameStateFactory.build(standard24MoveSetup(), mrX, blue);
+		state = state.advance(bus(MRX, 46, 58));
+		state = state.advance(taxi(BLUE, 94, 95));
+		assertTickets(state, MRX, 0, 1, 0, 0, 0);
+		assertThat(state.getAvailableMoves()).isNotEmpty()
+				.allMatch(move -> ((Move.SingleMove) move).ticket == BUS);
+	}
+
 	@Test public void testMrXMovesToDestinationAfterDoubleMove() {
 		var mrX = new Player(MRX, makeTickets(2, 1, 1, 1, 0), 45);
 		var blue = new Player(BLUE, makeTickets(2, 0, 0, 0, 0), 94);
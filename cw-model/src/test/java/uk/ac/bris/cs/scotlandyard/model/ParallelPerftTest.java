@@ -0,0 +1,67 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import uk.ac.bris.cs.scotlandyard.model.Board.GameState;
+import uk.ac.bris.cs.scotlandyard.model.ParallelPerft.Playouts;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests that game states can be shared between threads, see {@link ParallelPerft}
+ */
+public class ParallelPerftTest extends ParameterisedModelTestBase {
+
+	private ForkJoinPool pool;
+
+	@Before public void createPool() {
+		pool = new ForkJoinPool(4);
+	}
+
+	@After public void shutdownPool() {
+		pool.shutdownNow();
+	}
+
+	@Test public void testParallelCountsMatchSequential() {
+		Perft.Result sequential = Perft.perft(Perft.standardStart(gameStateFactory, 3), 3);
+		for (int splitDepth = 1; splitDepth <= 2; splitDepth++) {
+			ParallelPerft.Result parallel = ParallelPerft.perft(pool, Perft.standardStart(gameStateFactory, 3), 3, splitDepth);
+			assertThat(parallel.total.sameCounts(sequential)).as("split depth %d", splitDepth).isTrue();
+			assertThat(parallel.threads.values().stream().mapToLong(stats -> stats.nodes).sum())
+					.isEqualTo(sequential.nodes);
+		}
+	}
+
+	@Test public void testStateSharedByConcurrentWalks() throws InterruptedException, ExecutionException {
+		Perft.Result expected = Perft.perft(Perft.standardStart(gameStateFactory, 0), 3);
+
+		// Every thread walks the same tree of states at once, racing to compute their moves and winners
+		GameState shared = Perft.standardStart(gameStateFactory, 0);
+		List<Future<Perft.Result>> walks = new ArrayList<>();
+		for (int i = 0; i < 8; i++) walks.add(pool.submit(() -> Perft.perft(shared, 3)));
+		for (Future<Perft.Result> walk : walks) assertThat(walk.get().sameCounts(expected)).isTrue();
+	}
+
+	@Test public void testPlayoutsDoNotDependOnPool() {
+		GameState start = Perft.standardStart(gameStateFactory, 1);
+		ForkJoinPool single = new ForkJoinPool(1);
+		try {
+			Playouts expected = ParallelPerft.playouts(single, start, 40, 42);
+			Playouts actual = ParallelPerft.playouts(pool, start, 40, 42);
+			assertThat(actual.games).isEqualTo(40);
+			assertThat(actual.mrXWins + actual.detectiveWins).isEqualTo(40);
+			assertThat(actual.mrXWins).isEqualTo(expected.mrXWins);
+			assertThat(actual.plies).isEqualTo(expected.plies);
+		} finally {
+			single.shutdownNow();
+		}
+	}
+}
@@ -15,6 +15,7 @@ import org.junit.runners.Parameterized.Parameters;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.Random;
 
 import javax.annotation.Nonnull;
 
@@ -76,11 +77,54 @@ import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.readGraph;
 	 * @return the default graph used in the actual game
 	 */
 	@Nonnull static ImmutableValueGraph<Integer, ImmutableSet<Transport>> standardGraph() {
+		// Read on first use too, for the tests that aren't parameterised by factory
+		if (defaultGraph == null) setUp();
 		return defaultGraph;
 	}
 
 	@Nonnull static GameSetup standard24MoveSetup() {
-		return new GameSetup(defaultGraph, STANDARD24MOVES);
+		return new GameSetup(standardGraph(), STANDARD24MOVES);
+	}
+
+	/**
+	 * @return the standard game of {@link MyGameStateFactory}: the black player against the other
+	 * five players, all with the default tickets and locations
+	 */
+	@Nonnull static EngineGameState standardGame() {
+		return new MyGameStateFactory().build(standard24MoveSetup(), blackPlayer(),
+				ImmutableList.of(redPlayer(), greenPlayer(), bluePlayer(), whitePlayer(), yellowPlayer()));
+	}
+
+	/**
+	 * Visits the positions of a game played with random moves
+	 */
+	@FunctionalInterface interface PositionVisitor {
+		/**
+		 * @param state the position
+		 * @param move the move about to be made from it, or {@link MoveCodec#NONE} once nobody can move
+		 */
+		void visit(@Nonnull EngineGameState state, long move);
+	}
+
+	/**
+	 * Plays a game on from a position with random moves, until nobody can move
+	 *
+	 * @param state the position to start from
+	 * @param random picks the moves, each uniformly from the generated moves
+	 * @param visitor called with every position of the game, before its move is made
+	 * @return the position the game ended in
+	 */
+	@Nonnull static EngineGameState playRandomGame(@Nonnull EngineGameState state, @Nonnull Random random,
+	                                               @Nonnull PositionVisitor visitor) {
+		MoveList moves = new MoveList();
+		while (true) {
+			moves.clear();
+			state.generateMoves(moves);
+			long move = moves.isEmpty() ? MoveCodec.NONE : moves.get(random.nextInt(moves.size()));
+			visitor.visit(state, move);
+			if (move == MoveCodec.NONE) return state;
+			state = state.advance(move);
+		}
 	}
 
 	/**
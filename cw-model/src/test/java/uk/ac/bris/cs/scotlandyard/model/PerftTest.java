@@ -0,0 +1,52 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import org.junit.Test;
+
+import uk.ac.bris.cs.scotlandyard.model.Perft.Result;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Pins the number of positions reachable from standard starting positions, see {@link Perft}
+ */
+public class PerftTest extends ParameterisedModelTestBase {
+
+	@Test public void testMrXPly() {
+		assertCounts(Perft.perft(Perft.standardStart(gameStateFactory, 0), 1), 94, 94, 0, 8, 86, 67, 0);
+		assertCounts(Perft.perft(Perft.standardStart(gameStateFactory, 3), 1), 142, 142, 0, 10, 132, 104, 0);
+	}
+
+	@Test public void testFirstDetectivePly() {
+		assertCounts(Perft.perft(Perft.standardStart(gameStateFactory, 0), 2), 2162, 0, 2162, 2162, 0, 0, 0);
+		assertCounts(Perft.perft(Perft.standardStart(gameStateFactory, 3), 2), 3834, 0, 3834, 3834, 0, 0, 0);
+	}
+
+	@Test public void testSecondDetectivePly() {
+		assertCounts(Perft.perft(Perft.standardStart(gameStateFactory, 0), 3), 37412, 0, 37412, 37412, 0, 0, 0);
+		// Some of Mr X's double moves end next to a detective, who can then catch him
+		assertCounts(Perft.perft(Perft.standardStart(gameStateFactory, 3), 3), 79144, 0, 79144, 79144, 0, 0, 4);
+	}
+
+	@Test public void testSearchStateMatchesGameState() {
+		for (int seed = 0; seed < 4; seed++) {
+			Board.GameState start = Perft.standardStart(gameStateFactory, seed);
+			SearchState search = SearchState.of(start);
+			for (int depth = 1; depth <= 3; depth++) {
+				assertThat(Perft.perft(search, depth).sameCounts(Perft.perft(start, depth)))
+						.as("seed %d, depth %d", seed, depth).isTrue();
+			}
+			assertThat(search.depth()).isZero();
+		}
+	}
+
+	private static void assertCounts(Result result, long nodes, long mrXMoves, long detectiveMoves,
+	                                 long singleMoves, long doubleMoves, long secretMoves, long gameOvers) {
+		assertThat(result.nodes).as("nodes").isEqualTo(nodes);
+		assertThat(result.mrXMoves).as("Mr X moves").isEqualTo(mrXMoves);
+		assertThat(result.detectiveMoves).as("detective moves").isEqualTo(detectiveMoves);
+		assertThat(result.singleMoves).as("single moves").isEqualTo(singleMoves);
+		assertThat(result.doubleMoves).as("double moves").isEqualTo(doubleMoves);
+		assertThat(result.secretMoves).as("secret moves").isEqualTo(secretMoves);
+		assertThat(result.gameOvers).as("game overs").isEqualTo(gameOvers);
+	}
+}
@@ -0,0 +1,58 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.RED;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.BUS;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.DOUBLE;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.SECRET;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.TAXI;
+
+/**
+ * Tests that {@link Player}'s packed tickets behave as the map they are built from
+ */
+public class PlayerTest {
+
+	@Test public void testTicketsMatchTheGivenMap() {
+		ImmutableMap<ScotlandYard.Ticket, Integer> tickets = ImmutableMap.of(TAXI, 3, BUS, 0);
+		Player player = new Player(RED, tickets, 50);
+		assertThat(player.tickets()).isEqualTo(tickets);
+		assertThat(player.at(51).tickets()).isEqualTo(tickets);
+		assertThat(player.use(TAXI).tickets()).isEqualTo(ImmutableMap.of(TAXI, 2, BUS, 0));
+		assertThat(player.give(BUS).tickets()).isEqualTo(ImmutableMap.of(TAXI, 3, BUS, 1));
+	}
+
+	@Test public void testGiveOnlyAddsToTicketsInTheMap() {
+		Player player = new Player(RED, ImmutableMap.of(TAXI, 1), 50);
+		assertThat(player.give(SECRET)).isEqualTo(player);
+		assertThat(player.give(SECRET).has(SECRET)).isFalse();
+		assertThat(player.give(SECRET).tickets()).doesNotContainKey(SECRET);
+	}
+
+	@Test public void testCounts() {
+		Player mrX = new Player(MRX, ScotlandYard.defaultMrXTickets(), 35);
+		assertThat(mrX.has(DOUBLE)).isTrue();
+		assertThat(mrX.hasAtLeast(DOUBLE, 2)).isTrue();
+		assertThat(mrX.use(DOUBLE).hasAtLeast(DOUBLE, 2)).isFalse();
+		assertThat(mrX.use(DOUBLE).use(DOUBLE).has(DOUBLE)).isFalse();
+		assertThatThrownBy(() -> mrX.use(DOUBLE).use(DOUBLE).use(DOUBLE))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testEqualityFollowsTheMap() {
+		Player player = new Player(RED, ImmutableMap.of(TAXI, 1, BUS, 2), 50);
+		Player same = new Player(RED, ImmutableMap.of(BUS, 2, TAXI, 1), 50);
+		assertThat(player).isEqualTo(same);
+		assertThat(player.hashCode()).isEqualTo(same.hashCode());
+		assertThat(player.use(TAXI).give(TAXI)).isEqualTo(player);
+		// A ticket missing from the map isn't the same as a count of zero
+		assertThat(new Player(RED, ImmutableMap.of(TAXI, 1, BUS, 0), 50))
+				.isNotEqualTo(new Player(RED, ImmutableMap.of(TAXI, 1), 50));
+		assertThat(player.at(51)).isNotEqualTo(player);
+	}
+}
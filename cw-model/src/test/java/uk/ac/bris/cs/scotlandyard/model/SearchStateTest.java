@@ -0,0 +1,196 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Longs;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongToIntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.blackPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.bluePlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.greenPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.playRandomGame;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.redPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standard24MoveSetup;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standardGame;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.taxi;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.whitePlayer;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.yellowPlayer;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.Detective.GREEN;
+import static uk.ac.bris.cs.scotlandyard.model.Piece.MrX.MRX;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.BUS;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.DOUBLE;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.SECRET;
+import static uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket.UNDERGROUND;
+
+/**
+ * Tests that {@link SearchState} plays the same game as {@link MyGameStateFactory}
+ */
+public class SearchStateTest {
+
+	private static EngineGameState partialMrXGame() {
+		Player mrX = new Player(MRX, ImmutableMap.of(BUS, 3, UNDERGROUND, 3, DOUBLE, 2, SECRET, 5), blackPlayer().location());
+		return new MyGameStateFactory().build(standard24MoveSetup(), mrX,
+				ImmutableList.of(redPlayer(), greenPlayer(), bluePlayer(), whitePlayer(), yellowPlayer()));
+	}
+
+	@Test public void testMatchesGameStateThroughRandomGames() {
+		Random random = new Random(7);
+		for (int game = 0; game < 20; game++) {
+			// Every other game Mr X's map has no taxi tickets, so he isn't given the detectives' ones
+			EngineGameState start = game % 2 == 0 ? standardGame() : partialMrXGame();
+			SearchState search = SearchState.of(start);
+			playRandomGame(start, random, (state, move) -> {
+				assertSameBoard(search, state);
+				if (move != MoveCodec.NONE) search.make(move);
+			});
+		}
+	}
+
+	@Test public void testUnmakeRestoresPosition() {
+		Random random = new Random(11);
+		EngineGameState start = standardGame();
+		SearchState search = SearchState.of(start);
+		List<Long> keys = new ArrayList<>();
+		List<ImmutableList<Move>> available = new ArrayList<>();
+		MoveList moves = new MoveList();
+		for (int ply = 0; ply < 40; ply++) {
+			moves.clear();
+			search.generateMoves(moves);
+			if (moves.isEmpty()) break;
+			keys.add(search.zobristKey());
+			available.add(moves.toMoves());
+			search.make(moves.get(random.nextInt(moves.size())));
+		}
+		while (search.depth() > 0) {
+			search.unmake();
+			moves.clear();
+			search.generateMoves(moves);
+			assertThat(search.zobristKey()).isEqualTo(keys.get(search.depth()));
+			assertThat(moves.toMoves()).isEqualTo(available.get(search.depth()));
+		}
+		assertSameBoard(search, start);
+	}
+
+	@Test public void testCopyIsIndependent() {
+		SearchState search = SearchState.of(standardGame());
+		SearchState copy = search.copy();
+		copy.make(MoveCodec.encode(taxi(MRX, 35, 36)));
+		assertThat(search.mrXLocation()).isEqualTo(35);
+		assertThat(copy.mrXLocation()).isEqualTo(36);
+		assertThat(search.zobristKey()).isNotEqualTo(copy.zobristKey());
+	}
+
+	@Test public void testMakeRejectsPlayerNotToMove() {
+		SearchState search = SearchState.of(standardGame());
+		assertThatThrownBy(() -> search.make(MoveCodec.encode(taxi(GREEN, 50, 49))))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testUnmakeWithoutMoveThrows() {
+		SearchState search = SearchState.of(standardGame());
+		assertThatThrownBy(search::unmake).isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test public void testDetectiveRoundsMatchMovesMadeInPlayerOrder() {
+		Random random = new Random(13);
+		boolean[] capture = {false};
+		for (int game = 0; game < 4; game++) {
+			SearchState search = SearchState.of(standardGame());
+			playRandomGame(standardGame(), random, (state, move) -> {
+				if (!search.isMrXTurn() && !search.isGameOver()) {
+					List<List<Long>> expected = new ArrayList<>();
+					addRoundsByMaking(search, new ArrayList<>(), expected);
+					List<List<Long>> rounds = new ArrayList<>();
+					search.detectiveRounds().forEachRemaining(round -> rounds.add(Longs.asList(round)));
+					assertThat(rounds).isEqualTo(expected);
+
+					// The game state gives the same rounds, and advancing by one gets to the same position
+					List<List<Long>> stateRounds = new ArrayList<>();
+					state.detectiveRounds(null, Integer.MAX_VALUE).forEachRemaining(round -> stateRounds.add(Longs.asList(round)));
+					assertThat(stateRounds).isEqualTo(expected);
+					long[] round = Longs.toArray(expected.get(random.nextInt(expected.size())));
+					search.makeRound(round);
+					assertThat(state.advanceRound(round).zobristKey()).isEqualTo(search.zobristKey());
+					assertThat(search.isMrXTurn() || search.isGameOver()).isTrue();
+					search.unmakeRound(round);
+					for (List<Long> made : expected) capture[0] |= made.size() < expected.get(0).size();
+				}
+				if (move != MoveCodec.NONE) search.make(move);
+			});
+		}
+		assertThat(capture[0]).isTrue();
+	}
+
+	@Test public void testDetectiveRoundsKeepBestScoredMoves() {
+		SearchState search = SearchState.of(standardGame());
+		search.make(MoveCodec.encode(taxi(MRX, 35, 36)));
+		// Detectives prefer the highest stations (moves are generated lowest first)
+		LongToIntFunction score = MoveCodec::destination1;
+
+		DetectiveRounds best = search.detectiveRounds(score, 1, false);
+		long[] round = best.next();
+		assertThat(best.hasNext()).isFalse();
+		MoveList moves = new MoveList();
+		search.generateMoves(moves);
+		int highest = Integer.MIN_VALUE;
+		for (int i = 0; i < moves.size(); i++) {
+			if (MoveCodec.piece(moves.get(i)) == MoveCodec.piece(round[0]))
+				highest = Math.max(highest, MoveCodec.destination1(moves.get(i)));
+		}
+		assertThat(MoveCodec.destination1(round[0])).isEqualTo(highest);
+
+		// Ordering alone only changes the order of the rounds
+		List<List<Long>> all = new ArrayList<>(), ordered = new ArrayList<>();
+		search.detectiveRounds().forEachRemaining(r -> all.add(Longs.asList(r)));
+		search.detectiveRounds(score, Integer.MAX_VALUE, false).forEachRemaining(r -> ordered.add(Longs.asList(r)));
+		assertThat(ordered).containsExactlyInAnyOrderElementsOf(all).isNotEqualTo(all);
+		assertThat(search.detectiveRounds(score, 2, false)).toIterable().hasSizeLessThanOrEqualTo(1 << 5);
+	}
+
+	@Test public void testNoDetectiveRoundsOnMrXTurn() {
+		assertThat(SearchState.of(standardGame()).detectiveRounds().hasNext()).isFalse();
+		assertThat(standardGame().detectiveRounds(null, Integer.MAX_VALUE).hasNext()).isFalse();
+	}
+
+	// Every way of finishing the round with the remaining detectives moving in player order
+	private static void addRoundsByMaking(SearchState search, List<Long> made, List<List<Long>> rounds) {
+		if (search.isMrXTurn() || search.isGameOver()) {
+			rounds.add(new ArrayList<>(made));
+			return;
+		}
+		MoveList moves = new MoveList();
+		search.generateMoves(moves);
+		Piece next = MoveCodec.piece(moves.get(0));
+		for (int i = 0; i < moves.size(); i++) {
+			if (MoveCodec.piece(moves.get(i)) != next) continue;
+			search.make(moves.get(i));
+			made.add(moves.get(i));
+			addRoundsByMaking(search, made, rounds);
+			made.remove(made.size() - 1);
+			search.unmake();
+		}
+	}
+
+	private static void assertSameBoard(SearchState search, EngineGameState state) {
+		assertThat(search.getAvailableMoves()).isEqualTo(state.getAvailableMoves());
+		assertThat(search.getWinner()).isEqualTo(state.getWinner());
+		assertThat(search.getMrXTravelLog()).isEqualTo(state.getMrXTravelLog());
+		assertThat(search.zobristKey()).isEqualTo(state.zobristKey());
+		assertThat(search.canonicalKey()).isEqualTo(state.canonicalKey());
+		for (Piece piece : state.getPlayers()) {
+			assertThat(search.presentTickets(piece)).isEqualTo(state.presentTickets(piece));
+			for (ScotlandYard.Ticket ticket : ScotlandYard.Ticket.values()) {
+				assertThat(search.getPlayerTickets(piece).orElseThrow().getCount(ticket))
+						.isEqualTo(state.getPlayerTickets(piece).orElseThrow().getCount(ticket));
+			}
+		}
+	}
+}
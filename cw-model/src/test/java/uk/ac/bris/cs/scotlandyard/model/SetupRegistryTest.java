@@ -0,0 +1,61 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standard24MoveSetup;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standardGraph;
+
+/**
+ * Tests that {@link SetupRegistry} computes the data of a setup once and shares it
+ */
+public class SetupRegistryTest {
+
+	@Test public void testEqualSetupsShareTheirData() {
+		GameSetup setup = standard24MoveSetup();
+		GameSetup equal = new GameSetup(standardGraph(), setup.moves);
+		assertThat(equal).isNotSameAs(setup);
+		assertThat(SetupRegistry.graph(setup)).isSameAs(SetupRegistry.graph(setup)).isSameAs(SetupRegistry.graph(equal));
+		assertThat(SetupRegistry.fingerprint(equal)).isEqualTo(SetupRegistry.fingerprint(setup));
+	}
+
+	@Test public void testDifferentRevealRoundsAreDifferentSetups() {
+		GameSetup setup = standard24MoveSetup();
+		GameSetup other = new GameSetup(standardGraph(), ImmutableList.of(true, false, false));
+		assertThat(SetupRegistry.fingerprint(other)).isNotEqualTo(SetupRegistry.fingerprint(setup));
+		assertThat(SetupRegistry.graph(other)).isNotSameAs(SetupRegistry.graph(setup));
+		assertThat(SetupRegistry.revealRounds(other)).containsExactly(0);
+	}
+
+	@Test public void testRevealRoundsOfStandardSetup() {
+		assertThat(SetupRegistry.revealRounds(standard24MoveSetup())).containsExactly(2, 7, 12, 17, 23);
+	}
+
+	@Test public void testDerivedDataIsComputedOnce() {
+		AtomicInteger computed = new AtomicInteger();
+		SetupRegistry.Derived<int[]> degrees = setup -> {
+			computed.incrementAndGet();
+			CompiledGraph graph = SetupRegistry.graph(setup);
+			int[] degree = new int[graph.capacity()];
+			for (int station = 0; station < degree.length; station++) {
+				if (graph.contains(station)) degree[station] = graph.endEdge(station) - graph.firstEdge(station);
+			}
+			return degree;
+		};
+		GameSetup setup = standard24MoveSetup();
+		int[] first = SetupRegistry.get(setup, degrees);
+		assertThat(SetupRegistry.get(setup, degrees)).isSameAs(first);
+		assertThat(SetupRegistry.get(new GameSetup(standardGraph(), setup.moves), degrees)).isSameAs(first);
+		assertThat(computed).hasValue(1);
+		assertThat(first[1]).isEqualTo(4);
+	}
+
+	@Test public void testCodecFingerprintIsTheRegistryFingerprint() {
+		GameSetup setup = standard24MoveSetup();
+		assertThat(new GameStateCodec(setup).fingerprint()).isEqualTo(SetupRegistry.fingerprint(setup));
+	}
+}
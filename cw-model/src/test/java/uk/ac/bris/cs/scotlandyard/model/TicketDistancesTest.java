@@ -0,0 +1,122 @@
+package uk.ac.bris.cs.scotlandyard.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.graph.ImmutableValueGraph;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Ticket;
+import uk.ac.bris.cs.scotlandyard.model.ScotlandYard.Transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static uk.ac.bris.cs.scotlandyard.model.ParameterisedModelTestBase.standard24MoveSetup;
+
+/**
+ * Tests that {@link TicketDistances} matches a search that tracks every ticket
+ */
+public class TicketDistancesTest {
+
+	@Test public void testCountsLimitTheRoute() {
+		TicketDistances distances = new TicketDistances(standard24MoveSetup(), 16);
+		assertThat(distances.distance(1, 1, 0, 0, 0)).isEqualTo(0);
+		assertThat(distances.distance(1, 46, 0, 1, 0)).isEqualTo(1);
+		assertThat(distances.distance(1, 46, 0, 0, 1)).isEqualTo(1);
+		// Bus to 46 or 58, then no tickets are left
+		assertThat(distances.distance(1, 8, 0, 1, 0)).isEqualTo(TicketDistances.UNREACHABLE);
+		assertThat(distances.distance(1, 8, 1, 0, 0)).isEqualTo(1);
+	}
+
+	@Test public void testMatchesDistanceTableWithEnoughTickets() {
+		GameSetup setup = standard24MoveSetup();
+		TicketDistances distances = new TicketDistances(setup, 256);
+		DistanceTable table = DistanceTable.of(setup);
+		int tickets = CompiledGraph.bit(Ticket.TAXI) | CompiledGraph.bit(Ticket.BUS) | CompiledGraph.bit(Ticket.UNDERGROUND);
+		for (int source : List.of(1, 13, 67, 128, 199)) {
+			for (int target : setup.graph.nodes()) {
+				assertThat(distances.distance(source, target, 50, 50, 50))
+						.as("%d to %d", source, target).isEqualTo(table.distance(source, target, tickets));
+			}
+		}
+	}
+
+	@Test public void testMatchesSearchOfEveryTicket() {
+		GameSetup setup = standard24MoveSetup();
+		TicketDistances distances = new TicketDistances(setup, 8);
+		Random random = new Random(0);
+		List<Integer> stations = List.copyOf(setup.graph.nodes());
+		for (int i = 0; i < 40; i++) {
+			int source = stations.get(random.nextInt(stations.size()));
+			int taxi = random.nextInt(4), bus = random.nextInt(3), underground = random.nextInt(2);
+			Map<Integer, Integer> expected = search(setup.graph, source, taxi, bus, underground);
+			for (int target : stations) {
+				assertThat(distances.distance(source, target, taxi, bus, underground))
+						.as("%d to %d with %d, %d, %d", source, target, taxi, bus, underground)
+						.isEqualTo(expected.getOrDefault(target, TicketDistances.UNREACHABLE));
+			}
+		}
+	}
+
+	@Test public void testBeyondHorizonIsLowerBound() {
+		GameSetup setup = standard24MoveSetup();
+		TicketDistances distances = new TicketDistances(setup, 16);
+		Map<Integer, Integer> expected = search(setup.graph, 1, 20, 0, 0);
+		for (int target : setup.graph.nodes()) {
+			int distance = distances.distance(1, target, 20, 0, 0);
+			int actual = expected.getOrDefault(target, TicketDistances.UNREACHABLE);
+			if (actual <= TicketDistances.HORIZON) assertThat(distance).isEqualTo(actual);
+			else assertThat(distance).isGreaterThan(TicketDistances.HORIZON).isLessThanOrEqualTo(actual);
+		}
+	}
+
+	@Test public void testCacheIsBounded() {
+		TicketDistances distances = new TicketDistances(standard24MoveSetup(), 2);
+		distances.distance(1, 8, 1, 1, 1);
+		distances.distance(2, 8, 1, 1, 1);
+		distances.distance(3, 8, 1, 1, 1);
+		assertThat(distances.size()).isEqualTo(2);
+		distances.clear();
+		assertThat(distances.size()).isZero();
+		assertThatThrownBy(() -> new TicketDistances(standard24MoveSetup(), 0))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test public void testStationsNotOnTheGraph() {
+		TicketDistances distances = new TicketDistances(standard24MoveSetup(), 16);
+		assertThat(distances.distance(0, 1, 1, 1, 1)).isEqualTo(TicketDistances.UNREACHABLE);
+		assertThat(distances.distance(1, 1000, 1, 1, 1)).isEqualTo(TicketDistances.UNREACHABLE);
+	}
+
+	// Breadth first search over (station, taxi, bus, underground), with the counts uncapped
+	private static Map<Integer, Integer> search(ImmutableValueGraph<Integer, ImmutableSet<Transport>> graph,
+	                                            int source, int taxi, int bus, int underground) {
+		Map<Integer, Integer> distances = new HashMap<>();
+		Set<List<Integer>> visited = new HashSet<>();
+		ArrayDeque<List<Integer>> queue = new ArrayDeque<>();
+		List<Integer> start = List.of(source, taxi, bus, underground, 0);
+		queue.add(start);
+		visited.add(start.subList(0, 4));
+		while (!queue.isEmpty()) {
+			List<Integer> state = queue.remove();
+			distances.putIfAbsent(state.get(0), state.get(4));
+			for (int neighbour : graph.adjacentNodes(state.get(0))) {
+				for (Transport transport : graph.edgeValueOrDefault(state.get(0), neighbour, ImmutableSet.of())) {
+					int used = transport.requiredTicket().ordinal();
+					if (used > 2 || state.get(1 + used) == 0) continue;
+					Integer[] next = {neighbour, state.get(1), state.get(2), state.get(3), state.get(4) + 1};
+					next[1 + used]--;
+					if (visited.add(List.of(next).subList(0, 4))) queue.add(List.of(next));
+				}
+			}
+		}
+		return distances;
+	}
+}